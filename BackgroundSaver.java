@@ -0,0 +1,113 @@
+import java.io.Closeable;
+import java.io.IOException;
+
+// Runs a save on its own thread, off the callers' path. mark() only notes that something
+// changed; the writer then waits `coalesceMillis` for the rest of the burst, so fifty quick
+// returns cost one save rather than fifty. flush() cuts the wait short and returns once a save
+// that started after every earlier mark() has finished. A save that throws covers nothing: it
+// is retried after a backoff that doubles up to RETRY_MAX_MILLIS, and any flush() waiting on
+// it gets the failure instead of returning.
+public class BackgroundSaver implements Closeable {
+    public interface Save { void run() throws IOException; }
+
+    private static final long RETRY_MIN_MILLIS = 100, RETRY_MAX_MILLIS = 30_000;
+
+    private final Save save;
+    private final long coalesceMillis;
+    private final Thread thread;
+    // guarded by this: changes noted, changes covered by a finished save, and the most any
+    // flush() is waiting for (no more than saved once every flush has been served, by a save or
+    // by a failure, so a flag can't outlive its flush and skip the coalescing wait of a later
+    // burst or the backoff after a failed save)
+    private long marked, saved, flushTarget;
+    // guarded by this: failed saves so far and the latest one's error
+    private long failures;
+    private IOException failure;
+    private boolean closed;
+
+    public BackgroundSaver(String name, long coalesceMillis, Save save) {
+        this.save = save;
+        this.coalesceMillis = coalesceMillis;
+        this.thread = Thread.ofPlatform().name(name).daemon().start(this::run);
+    }
+
+    public synchronized void mark() {
+        if (marked++ == saved) notifyAll();
+    }
+
+    // Throws the error of the save that failed while this call was waiting; with a failure
+    // already pending, that is the next attempt, which the call starts at once.
+    public synchronized void flush() throws IOException, InterruptedException {
+        long target = marked;
+        if (saved >= target) return;
+        long seen = failures;
+        flushTarget = Math.max(flushTarget, target);
+        notifyAll();
+        while (saved < target && failures == seen && thread.isAlive()) wait();
+        if (saved >= target) return;
+        throw unsaved();
+    }
+
+    // Saves whatever is pending (one attempt, no retries), then stops the thread. Throws if
+    // changes are left unsaved.
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            if (saved < marked) throw unsaved();
+        }
+    }
+
+    // Caller holds this.
+    private IOException unsaved() {
+        if (failure == null) return new IOException("background saver stopped before saving");
+        return new IOException(failure.getMessage(), failure);
+    }
+
+    private void run() {
+        try {
+            long backoff = 0;
+            while (true) {
+                long target;
+                synchronized (this) {
+                    while (marked == saved && !closed) wait();
+                    if (marked == saved) return;
+                    long pause = backoff > 0 ? backoff : coalesceMillis;
+                    long deadline = System.currentTimeMillis() + pause;
+                    for (long left = pause; flushTarget <= saved && !closed && left > 0; left = deadline - System.currentTimeMillis()) wait(left);
+                    target = marked;
+                }
+                IOException error = null;
+                try {
+                    save.run();
+                } catch (IOException e) {
+                    error = e;
+                }
+                synchronized (this) {
+                    if (error == null) {
+                        saved = target;
+                        failure = null;
+                        backoff = 0;
+                    } else {
+                        failures++;
+                        failure = error;
+                        flushTarget = saved; // every waiting flush gets the failure
+                        backoff = Math.min(Math.max(2 * backoff, RETRY_MIN_MILLIS), RETRY_MAX_MILLIS);
+                    }
+                    notifyAll();
+                    if (error != null && closed) return;
+                }
+            }
+        } catch (InterruptedException e) {
+            // stopped
+        }
+    }
+}
@@ -0,0 +1,246 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Compact columnar alternative to library.json. All integers are big-endian int32:
+//
+//   header   "LIBB", version, nextBookId, nextUserId, nextIssuedId,
+//            bookCount, userCount, issuedCount, stringCount, stringBytes
+//   strings  offsets[stringCount + 1], then stringBytes of UTF-8; each distinct string once
+//   books    id[], title[], author[], availableCopies[], totalCopies[]   (string refs index the table)
+//   users    id[], name[], email[]                                      (-1 = null email)
+//   issued   id[], bookId[], userId[], issueDay[], dueDay[], returnDay[] (epoch days, NO_DATE = null)
+//   holds    nextHoldId, holdCount, then id[], bookId[], userId[], placedDay[], days[]
+//            (since version 2; version 1 files have no holds and still load)
+//   changes  changeEpoch, changeSeq as int64: the change feed position the snapshot reflects
+//            (since version 3; older files load as 0, 0 like a JSON snapshot without them)
+//
+// Loading maps the file and reads columns with absolute gets, so there is no text to scan.
+public class BinarySnapshot {
+    static final int MAGIC = 0x4C494242; // "LIBB"
+    static final int VERSION = 3;
+    private static final int HEADER_INTS = 10;
+    private static final int NO_DATE = Integer.MIN_VALUE;
+    private static final int NO_STRING = -1;
+
+    // Receives entities as they are decoded.
+    interface Sink {
+        void nextIds(int book, int user, int issued);
+        void book(Book b);
+        void user(User u);
+        void issued(IssuedRecord r);
+        void nextHoldId(int id);
+        void hold(Hold h);
+        void changes(long epoch, long seq);
+    }
+
+    public static boolean isBinaryPath(Path p) {
+        return p.getFileName().toString().endsWith(".bin");
+    }
+
+    // True if the file starts with the binary magic, whatever it is called.
+    public static boolean isBinaryFile(Path p) throws IOException {
+        if (Files.size(p) < 4) return false;
+        try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ)) {
+            ByteBuffer b = ByteBuffer.allocate(4);
+            while (b.hasRemaining()) if (ch.read(b) < 0) return false;
+            return b.getInt(0) == MAGIC;
+        }
+    }
+
+    public static void write(OutputStream os, int nextBookId, int nextUserId, int nextIssuedId,
+                             List<Book> books, List<User> users, List<IssuedRecord> issued,
+                             int nextHoldId, List<Hold> holds, long changeEpoch, long changeSeq) throws IOException {
+        Map<String, Integer> refs = new HashMap<>();
+        List<byte[]> table = new ArrayList<>();
+        int[] title = new int[books.size()], author = new int[books.size()];
+        for (int i = 0; i < books.size(); i++) {
+            title[i] = intern(books.get(i).getTitle(), refs, table);
+            author[i] = intern(books.get(i).getAuthor(), refs, table);
+        }
+        int[] name = new int[users.size()], email = new int[users.size()];
+        for (int i = 0; i < users.size(); i++) {
+            name[i] = intern(users.get(i).getName(), refs, table);
+            email[i] = intern(users.get(i).getEmail(), refs, table);
+        }
+        long stringBytes = 0;
+        for (byte[] s : table) stringBytes += s.length;
+        if (stringBytes > Integer.MAX_VALUE) throw new IOException("string table too large for format v" + VERSION);
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os, 1 << 16));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(nextBookId);
+        out.writeInt(nextUserId);
+        out.writeInt(nextIssuedId);
+        out.writeInt(books.size());
+        out.writeInt(users.size());
+        out.writeInt(issued.size());
+        out.writeInt(table.size());
+        out.writeInt((int) stringBytes);
+
+        int off = 0;
+        out.writeInt(0);
+        for (byte[] s : table) out.writeInt(off += s.length);
+        for (byte[] s : table) out.write(s);
+
+        for (Book b : books) out.writeInt(b.getId());
+        for (int r : title) out.writeInt(r);
+        for (int r : author) out.writeInt(r);
+        for (Book b : books) out.writeInt(b.getAvailableCopies());
+        for (Book b : books) out.writeInt(b.getTotalCopies());
+
+        for (User u : users) out.writeInt(u.getId());
+        for (int r : name) out.writeInt(r);
+        for (int r : email) out.writeInt(r);
+
+        for (IssuedRecord r : issued) out.writeInt(r.getId());
+        for (IssuedRecord r : issued) out.writeInt(r.getBookId());
+        for (IssuedRecord r : issued) out.writeInt(r.getUserId());
+        for (IssuedRecord r : issued) out.writeInt(day(r.getIssueDate()));
+        for (IssuedRecord r : issued) out.writeInt(day(r.getDueDate()));
+        for (IssuedRecord r : issued) out.writeInt(day(r.getReturnDate()));
+
+        out.writeInt(nextHoldId);
+        out.writeInt(holds.size());
+        for (Hold h : holds) out.writeInt(h.getId());
+        for (Hold h : holds) out.writeInt(h.getBookId());
+        for (Hold h : holds) out.writeInt(h.getUserId());
+        for (Hold h : holds) out.writeInt(day(h.getPlacedDate()));
+        for (Hold h : holds) out.writeInt(h.getDays());
+
+        out.writeLong(changeEpoch);
+        out.writeLong(changeSeq);
+        out.flush();
+    }
+
+    public static void read(Path path, Sink sink) throws IOException {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = SnapshotFiles.payloadSize(ch); // a checksum footer may follow
+            if (size > Integer.MAX_VALUE) throw new IOException("binary snapshot larger than 2 GB is not supported");
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (size < HEADER_INTS * 4L || buf.getInt(0) != MAGIC) throw new IOException("not a binary library snapshot");
+            int version = buf.getInt(4);
+            if (version < 1 || version > VERSION) throw new IOException("unsupported binary snapshot version " + version);
+            int nb = buf.getInt(20), nu = buf.getInt(24), ni = buf.getInt(28);
+            int ns = buf.getInt(32), stringBytes = buf.getInt(36);
+
+            if (nb < 0 || nu < 0 || ni < 0 || ns < 0 || stringBytes < 0) throw new IOException("binary snapshot is corrupt");
+            long end = HEADER_INTS * 4L + (ns + 1L) * 4 + stringBytes + 20L * nb + 12L * nu + 24L * ni;
+            int nh = 0;
+            if (version >= 2) {
+                if (end + 8 > size) throw new IOException("binary snapshot is truncated or corrupt");
+                nh = buf.getInt((int) end + 4);
+                if (nh < 0) throw new IOException("binary snapshot is corrupt");
+                end += 8 + 20L * nh;
+            }
+            if (version >= 3) end += 16;
+            if (end != size) throw new IOException("binary snapshot is truncated or corrupt");
+            int offsets = HEADER_INTS * 4;
+            int bytes = offsets + (ns + 1) * 4;
+            int books = bytes + stringBytes;
+            int users = books + 5 * 4 * nb;
+            int issued = users + 3 * 4 * nu;
+            int holds = issued + 6 * 4 * ni + 8;
+
+            String[] strings = new String[ns];
+            byte[] scratch = new byte[64];
+            sink.nextIds(buf.getInt(8), buf.getInt(12), buf.getInt(16));
+            for (int i = 0; i < nb; i++) {
+                sink.book(new Book(col(buf, books, nb, 0, i),
+                        str(buf, col(buf, books, nb, 1, i), strings, offsets, bytes, scratch),
+                        str(buf, col(buf, books, nb, 2, i), strings, offsets, bytes, scratch),
+                        col(buf, books, nb, 3, i), col(buf, books, nb, 4, i)));
+            }
+            for (int i = 0; i < nu; i++) {
+                sink.user(new User(col(buf, users, nu, 0, i),
+                        str(buf, col(buf, users, nu, 1, i), strings, offsets, bytes, scratch),
+                        str(buf, col(buf, users, nu, 2, i), strings, offsets, bytes, scratch)));
+            }
+            for (int i = 0; i < ni; i++) {
+                sink.issued(new IssuedRecord(col(buf, issued, ni, 0, i), col(buf, issued, ni, 1, i), col(buf, issued, ni, 2, i),
+                        date(col(buf, issued, ni, 3, i)), date(col(buf, issued, ni, 4, i)), date(col(buf, issued, ni, 5, i))));
+            }
+            if (version >= 2) sink.nextHoldId(buf.getInt(holds - 8));
+            for (int i = 0; i < nh; i++) {
+                sink.hold(new Hold(col(buf, holds, nh, 0, i), col(buf, holds, nh, 1, i), col(buf, holds, nh, 2, i),
+                        date(col(buf, holds, nh, 3, i)), col(buf, holds, nh, 4, i)));
+            }
+            if (version >= 3) {
+                int changes = holds + 5 * 4 * nh;
+                sink.changes(buf.getLong(changes), buf.getLong(changes + 8));
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("binary snapshot is corrupt", e);
+        }
+    }
+
+    // java BinarySnapshot to-bin library.json library.bin
+    // java BinarySnapshot to-json library.bin library.json
+    // Converts the snapshot file only; checkpoint first if a journal sits next to it.
+    public static void main(String[] args) {
+        if (args.length != 3 || !(args[0].equals("to-bin") || args[0].equals("to-json"))) {
+            System.out.println("usage: BinarySnapshot to-bin|to-json <input> <output>");
+            return;
+        }
+        boolean toBin = args[0].equals("to-bin");
+        Path in = Paths.get(args[1]), out = Paths.get(args[2]);
+        if (toBin != isBinaryPath(out)) {
+            System.out.println("Output name must " + (toBin ? "" : "not ") + "end in .bin");
+            return;
+        }
+        try {
+            Library lib;
+            if (isBinaryFile(in)) lib = Library.fromBinary(in);
+            else try (Reader r = Files.newBufferedReader(in)) { lib = Library.fromJson(r); }
+            lib.saveToFile(args[2]);
+            System.out.println("Wrote " + out);
+        } catch (IOException e) {
+            System.out.println("Conversion failed: " + e.getMessage());
+        }
+    }
+
+    // --- helpers ---
+
+    private static int intern(String s, Map<String, Integer> refs, List<byte[]> table) {
+        if (s == null) return NO_STRING;
+        Integer ref = refs.get(s);
+        if (ref != null) return ref;
+        refs.put(s, table.size());
+        table.add(s.getBytes(StandardCharsets.UTF_8));
+        return table.size() - 1;
+    }
+
+    private static int col(MappedByteBuffer buf, int section, int rows, int column, int row) {
+        return buf.getInt(section + 4 * (column * rows + row));
+    }
+
+    // Each distinct string is decoded once and shared by every row that refers to it.
+    private static String str(MappedByteBuffer buf, int ref, String[] strings, int offsets, int bytes, byte[] scratch) {
+        if (ref == NO_STRING) return null;
+        String s = strings[ref];
+        if (s != null) return s;
+        int from = buf.getInt(offsets + 4 * ref), to = buf.getInt(offsets + 4 * (ref + 1));
+        byte[] b = to - from <= scratch.length ? scratch : new byte[to - from];
+        buf.get(bytes + from, b, 0, to - from);
+        return strings[ref] = new String(b, 0, to - from, StandardCharsets.UTF_8);
+    }
+
+    private static int day(LocalDate d) { return d == null ? NO_DATE : (int) d.toEpochDay(); }
+    private static LocalDate date(int day) { return day == NO_DATE ? null : LocalDate.ofEpochDay(day); }
+}
@@ -1,13 +1,18 @@
-import java.util.regex.Pattern;
-import java.util.regex.Matcher;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 public class Book {
     private final int id;
     private final String title;
     private final String author;
-    private int availableCopies;
+    private volatile int availableCopies; // updated by CAS so concurrent issues never oversell
     private final int totalCopies;
 
+    private static final AtomicIntegerFieldUpdater<Book> AVAILABLE =
+            AtomicIntegerFieldUpdater.newUpdater(Book.class, "availableCopies");
+
     public Book(int id, String title, String author, int availableCopies, int totalCopies) {
         this.id = id;
         this.title = title == null ? "" : title;
@@ -16,62 +21,83 @@ public class Book {
         this.totalCopies = totalCopies;
     }
 
+    // CompactBookTable hands out subclasses that serve these from its columns, so the rest of
+    // this class goes through the accessors rather than the fields.
     public int getId() { return id; }
     public String getTitle() { return title; }
+    public String getAuthor() { return author; }
     public int getAvailableCopies() { return availableCopies; }
     public int getTotalCopies() { return totalCopies; }
 
-    public void decrementAvailable() { if (availableCopies > 0) availableCopies--; }
-    public void incrementAvailable() { if (availableCopies < totalCopies) availableCopies++; }
+    // Both return false if the copy count was already at its bound.
+    public boolean decrementAvailable() {
+        for (int n = availableCopies; n > 0; n = availableCopies) {
+            if (AVAILABLE.compareAndSet(this, n, n - 1)) return true;
+        }
+        return false;
+    }
+    public boolean incrementAvailable() {
+        for (int n = availableCopies; n < totalCopies; n = availableCopies) {
+            if (AVAILABLE.compareAndSet(this, n, n + 1)) return true;
+        }
+        return false;
+    }
+
+    // Unclamped adjustment for journal replay, where records may arrive in an order that
+    // briefly pushes the count past a bound but always nets out correctly.
+    void adjustAvailable(int delta) { AVAILABLE.addAndGet(this, delta); }
 
     @Override
     public String toString() {
-        return String.format("ID:%d | %s by %s | Avail:%d/%d", id, title, author, availableCopies, totalCopies);
+        return RowFormatter.appendBook(new StringBuilder(64), this).toString();
     }
 
     // JSON
     public String toJson() {
-        StringBuilder sb = new StringBuilder();
-        sb.append("{\n");
-        sb.append("  \"id\": ").append(id).append(",\n");
-        sb.append("  \"title\": \"").append(escape(title)).append("\",\n");
-        sb.append("  \"author\": \"").append(escape(author)).append("\",\n");
-        sb.append("  \"availableCopies\": ").append(availableCopies).append(",\n");
-        sb.append("  \"totalCopies\": ").append(totalCopies).append("\n");
-        sb.append("}");
-        return sb.toString();
+        StringWriter sw = new StringWriter();
+        try {
+            writeJson(new JsonWriter(sw));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return sw.toString();
     }
 
-    public static Book fromJson(String text) {
-        int id = extractInt(text, "\"id\"\\s*:\\s*(\\d+)");
-        String title = extractString(text, "\"title\"\\s*:\\s*\"(.*?)\"");
-        String author = extractString(text, "\"author\"\\s*:\\s*\"(.*?)\"");
-        int avail = extractInt(text, "\"availableCopies\"\\s*:\\s*(\\d+)");
-        int total = extractInt(text, "\"totalCopies\"\\s*:\\s*(\\d+)");
-        if (id == -1) return null;
-        return new Book(id, unescape(title), unescape(author), avail, total);
+    public void writeJson(JsonWriter out) throws IOException {
+        out.beginObject();
+        out.name("id").value(id);
+        out.name("title").value(getTitle());
+        out.name("author").value(getAuthor());
+        out.name("availableCopies").value(getAvailableCopies());
+        out.name("totalCopies").value(getTotalCopies());
+        out.endObject();
     }
 
-    // helpers
-    private static int extractInt(String t, String regex) {
-        Pattern p = Pattern.compile(regex, Pattern.DOTALL);
-        Matcher m = p.matcher(t);
-        if (m.find()) try { return Integer.parseInt(m.group(1)); } catch (Exception ignored) {}
-        return -1;
-    }
-    private static String extractString(String t, String regex) {
-        Pattern p = Pattern.compile(regex, Pattern.DOTALL);
-        Matcher m = p.matcher(t);
-        if (m.find()) return m.group(1);
-        return "";
+    public static Book fromJson(String text) {
+        try {
+            return readJson(new JsonReader(text));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
-    private static String escape(String s) {
-        if (s == null) return "";
-        return s.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n").replace("\r", "");
-    }
-    private static String unescape(String s) {
-        if (s == null) return "";
-        return s.replace("\\n", "\n").replace("\\\"", "\"").replace("\\\\", "\\");
+    // Reads one object; returns null if it has no id. Missing numbers default to -1 as before.
+    public static Book readJson(JsonReader in) throws IOException {
+        int id = -1, avail = -1, total = -1;
+        String title = "", author = "";
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "id" -> id = in.nextInt();
+                case "title" -> title = in.nextString();
+                case "author" -> author = in.nextString();
+                case "availableCopies" -> avail = in.nextInt();
+                case "totalCopies" -> total = in.nextInt();
+                default -> in.skipValue();
+            }
+        }
+        in.endObject();
+        if (id == -1) return null;
+        return new Book(id, title, author, avail, total);
     }
 }
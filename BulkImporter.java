@@ -0,0 +1,135 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+// Reads books, users or loans for Library's bulk API from either
+//   CSV with a header row          title,author,copies
+//   JSON lines, one object a line  {"title":"Dune","author":"Frank Herbert","copies":2}
+// picked by file extension (.csv, anything else is JSON lines). Columns are matched by name:
+//   books  title, author, copies
+//   users  name, email
+//   loans  bookId, userId, issueDate, dueDate, returnDate   (dates as YYYY-MM-DD)
+// CSV fields may be quoted ("a, b" and "say ""hi"""), but not span lines.
+//
+//   java BulkImporter <library.json> books|users|loans <file>
+public class BulkImporter {
+
+    public static void main(String[] args) {
+        if (args.length < 3) {
+            System.out.println("usage: BulkImporter <library.json> books|users|loans <file.csv|file.jsonl>");
+            return;
+        }
+        Library lib = Library.loadFromFile(args[0]);
+        lib.enableJournal(args[0], Journal.FsyncPolicy.ALWAYS);
+        try {
+            int n = importFile(lib, args[1], Paths.get(args[2]));
+            System.out.println("Imported " + n + " " + args[1] + ".");
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Import failed: " + e.getMessage());
+        } finally {
+            lib.closeJournal();
+        }
+    }
+
+    // All or nothing: returns how many records were added, or throws without changing lib.
+    public static int importFile(Library lib, String kind, Path file) throws IOException {
+        List<Map<String, String>> rows = readRows(file);
+        return switch (kind) {
+            case "books" -> lib.addBooks(convert(rows, r -> new Library.NewBook(r.get("title"), r.get("author"), intCol(r, "copies"))).stream()).size();
+            case "users" -> lib.addUsers(convert(rows, r -> new Library.NewUser(r.get("name"), blankToNull(r.get("email")))).stream()).size();
+            case "loans" -> lib.importLoans(convert(rows, r -> new Library.NewLoan(intCol(r, "bookId"), intCol(r, "userId"),
+                    dateCol(r, "issueDate"), dateCol(r, "dueDate"), dateCol(r, "returnDate"))).stream()).size();
+            default -> throw new IllegalArgumentException("unknown kind " + kind + " (books, users or loans)");
+        };
+    }
+
+    public static List<Map<String, String>> readRows(Path file) throws IOException {
+        try (BufferedReader in = Files.newBufferedReader(file)) {
+            return file.getFileName().toString().toLowerCase().endsWith(".csv") ? readCsv(in) : readJsonLines(in);
+        }
+    }
+
+    private static List<Map<String, String>> readJsonLines(BufferedReader r) throws IOException {
+        List<Map<String, String>> rows = new ArrayList<>();
+        JsonReader in = new JsonReader(r);
+        while (in.peek() != JsonReader.Token.END) rows.add(in.nextFlatObject());
+        return rows;
+    }
+
+    private static List<Map<String, String>> readCsv(BufferedReader in) throws IOException {
+        List<Map<String, String>> rows = new ArrayList<>();
+        String line = in.readLine();
+        if (line == null) return rows;
+        List<String> header = splitCsv(line.startsWith("\uFEFF") ? line.substring(1) : line);
+        while ((line = in.readLine()) != null) {
+            if (line.isBlank()) continue;
+            List<String> cells = splitCsv(line);
+            Map<String, String> row = new HashMap<>();
+            for (int i = 0; i < header.size() && i < cells.size(); i++) row.put(header.get(i).trim(), cells.get(i));
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    private static List<String> splitCsv(String line) {
+        List<String> out = new ArrayList<>();
+        StringBuilder cell = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    cell.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    cell.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                out.add(cell.toString());
+                cell.setLength(0);
+            } else if (c != '\r') {
+                cell.append(c);
+            }
+        }
+        out.add(cell.toString());
+        return out;
+    }
+
+    // Malformed numbers and dates fail here, with the row they came from.
+    private static <T> List<T> convert(List<Map<String, String>> rows, Function<Map<String, String>, T> row) {
+        List<T> out = new ArrayList<>(rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            try {
+                out.add(row.apply(rows.get(i)));
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("row " + (i + 1) + ": " + e.getMessage());
+            }
+        }
+        return out;
+    }
+
+    private static int intCol(Map<String, String> row, String col) {
+        String v = blankToNull(row.get(col));
+        if (v == null) throw new IllegalArgumentException("missing " + col);
+        return Integer.parseInt(v.trim());
+    }
+
+    private static LocalDate dateCol(Map<String, String> row, String col) {
+        String v = blankToNull(row.get(col));
+        return v == null ? null : LocalDate.parse(v.trim());
+    }
+
+    private static String blankToNull(String s) { return s == null || s.isBlank() ? null : s; }
+}
@@ -0,0 +1,119 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.Random;
+
+// Writes a synthetic library.json of any size for benchmarks and load tests. Output is
+// deterministic for a given seed, so runs on different releases see the same catalog.
+// Loans are spread over the two years before `today`; about one in ten is still open, and
+// open loans past their 14-day due date show up as overdue.
+//
+//   java CatalogGenerator <books> <users> <loans> <out.json> [seed]
+public class CatalogGenerator {
+    private static final String[] WORDS = {
+        "river", "shadow", "garden", "winter", "empire", "secret", "silver", "storm", "house",
+        "night", "ocean", "forest", "crown", "letter", "mirror", "stone", "city", "journey",
+        "island", "fire", "glass", "memory", "harbor", "valley", "kingdom", "machine", "song"
+    };
+    private static final String[] FIRST = { "Ana", "Ben", "Chen", "Dara", "Eli", "Farah", "Goran", "Hana", "Ivo", "Jun" };
+    private static final String[] LAST = { "Reyes", "Okafor", "Novak", "Larsen", "Ito", "Haddad", "Silva", "Moreau", "Kumar", "Walsh" };
+    private static final int LOAN_DAYS = 14;
+
+    private final int books, users, loans;
+    private final long seed;
+    private final LocalDate today;
+
+    public CatalogGenerator(int books, int users, int loans, long seed, LocalDate today) {
+        if (books < 1 || users < 1 || loans < 0) throw new IllegalArgumentException("need at least one book and one user");
+        this.books = books;
+        this.users = users;
+        this.loans = loans;
+        this.seed = seed;
+        this.today = today;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 4) {
+            System.out.println("usage: CatalogGenerator <books> <users> <loans> <out.json> [seed]");
+            return;
+        }
+        CatalogGenerator g = new CatalogGenerator(Integer.parseInt(args[0]), Integer.parseInt(args[1]),
+                Integer.parseInt(args[2]), args.length > 4 ? Long.parseLong(args[4]) : 42L, LocalDate.now());
+        try (Writer out = Files.newBufferedWriter(Paths.get(args[3]))) {
+            g.write(out);
+        }
+    }
+
+    public void write(Writer writer) throws IOException {
+        // first pass only settles which loans stay open, so copy counts come out consistent
+        byte[] open = new byte[books + 1];
+        replayLoans(open, null);
+
+        JsonWriter out = new JsonWriter(writer);
+        out.beginObject();
+        out.name("nextBookId").value(books + 1);
+        out.name("nextUserId").value(users + 1);
+        out.name("nextIssuedId").value(loans + 1);
+
+        Random rnd = new Random(seed);
+        out.name("books").beginArray();
+        for (int id = 1; id <= books; id++) {
+            int total = totalCopies(id);
+            new Book(id, title(rnd), author(rnd), total - open[id], total).writeJson(out);
+        }
+        out.endArray();
+
+        out.name("users").beginArray();
+        for (int id = 1; id <= users; id++) {
+            String name = FIRST[rnd.nextInt(FIRST.length)] + " " + LAST[rnd.nextInt(LAST.length)];
+            new User(id, name, rnd.nextInt(4) == 0 ? null : "user" + id + "@example.org").writeJson(out);
+        }
+        out.endArray();
+
+        out.name("issued").beginArray();
+        replayLoans(new byte[books + 1], out);
+        out.endArray();
+
+        out.endObject().newline();
+        out.flush();
+    }
+
+    // Draws the loan sequence from its own seeded stream; writes it when out is non-null.
+    private void replayLoans(byte[] open, JsonWriter out) throws IOException {
+        Random rnd = new Random(seed ^ 0x5DEECE66DL);
+        for (int id = 1; id <= loans; id++) {
+            int bookId = 1 + rnd.nextInt(books);
+            int userId = 1 + rnd.nextInt(users);
+            LocalDate issue = today.minusDays(rnd.nextInt(730));
+            LocalDate due = issue.plusDays(LOAN_DAYS);
+            boolean stillOpen = rnd.nextInt(10) == 0 && open[bookId] < totalCopies(bookId);
+            if (stillOpen) open[bookId]++;
+            if (out == null) continue;
+            LocalDate returned = stillOpen ? null : issue.plusDays(1 + rnd.nextInt(LOAN_DAYS + 7));
+            if (returned != null && returned.isAfter(today)) returned = today;
+            new IssuedRecord(id, bookId, userId, issue, due, returned).writeJson(out);
+        }
+    }
+
+    private static int totalCopies(int bookId) { return 1 + Math.floorMod(bookId * 0x9E3779B9, 5); }
+
+    private static String title(Random rnd) {
+        int n = 1 + rnd.nextInt(4);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            if (i > 0) sb.append(' ');
+            String w = WORDS[rnd.nextInt(WORDS.length)];
+            sb.append(Character.toUpperCase(w.charAt(0))).append(w, 1, w.length());
+        }
+        return sb.toString();
+    }
+
+    // Drawn from a pool about a twentieth the size of the catalog, so names repeat the way
+    // popular authors do.
+    private String author(Random rnd) {
+        int a = rnd.nextInt(Math.max(1, books / 20));
+        return FIRST[a % FIRST.length] + " " + LAST[(a / FIRST.length) % LAST.length] + (a >= 100 ? " " + a : "");
+    }
+}
@@ -0,0 +1,118 @@
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Sequenced copy of every Library change, for replicas that would otherwise re-copy the whole
+// snapshot. Each record RecordLog renders gets the next sequence number and is kept as its
+// line with the number added in front:
+//   {"seq":42,"op":"issue","record":{...}}
+// The newest `ringCapacity` lines stay in memory. Every line is also appended to a spill file,
+// with the byte offset of every INDEX_EVERY-th one kept, so a consumer that fell behind the
+// ring is served from disk without scanning it. The spill file starts empty each time a feed
+// is opened and the feed gets a new epoch: numbers restart, so a consumer holding another
+// epoch has to start over from a snapshot (Library.writeJson records the epoch and number).
+public class ChangeFeed extends RecordLog implements Closeable {
+    private static final int INDEX_EVERY = 256;
+
+    private final long epoch = System.currentTimeMillis();
+    private final Path spillPath;
+    private final FileChannel spill;
+    private final String[] ring;
+    private long lastSeq; // sequence number of the newest line; the first is 1
+    private long spillBytes;
+    private long[] index = new long[64]; // index[k]: offset of line k * INDEX_EVERY + 1
+    private int indexed;
+
+    public ChangeFeed(Path spillPath, int ringCapacity) throws IOException {
+        if (ringCapacity < 1) throw new IllegalArgumentException("ringCapacity must be >= 1");
+        this.spillPath = spillPath;
+        this.spill = FileChannel.open(spillPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.ring = new String[ringCapacity];
+    }
+
+    public long epoch() { return epoch; }
+
+    public synchronized long lastSeq() { return lastSeq; }
+
+    // Up to `max` lines after `seq`, oldest first; empty if there is nothing newer, null if
+    // `seq` is not from this epoch's range (bootstrap again).
+    public List<String> since(long seq, int max) throws IOException {
+        long from = seq + 1, offset;
+        int n;
+        synchronized (this) {
+            if (seq < 0 || seq > lastSeq) return seq == lastSeq ? List.of() : null;
+            n = (int) Math.min(max, lastSeq - seq);
+            if (from > lastSeq - ring.length) {
+                List<String> out = new ArrayList<>(n);
+                for (long s = from; s < from + n; s++) out.add(ring[(int) (s % ring.length)]);
+                return out;
+            }
+            offset = index[(int) ((from - 1) / INDEX_EVERY)];
+        }
+        // behind the ring: those lines are on disk and no longer change
+        List<String> out = new ArrayList<>(n);
+        try (FileChannel ch = FileChannel.open(spillPath, StandardOpenOption.READ);
+             BufferedReader in = new BufferedReader(Channels.newReader(ch.position(offset), StandardCharsets.UTF_8))) {
+            long s = (from - 1) / INDEX_EVERY * INDEX_EVERY + 1;
+            for (String line; out.size() < n && (line = in.readLine()) != null; s++) {
+                if (s >= from) out.add(line);
+            }
+        }
+        return out;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        spill.close();
+    }
+
+    @Override
+    protected void emit(int records) throws IOException {
+        StringBuilder lines = new StringBuilder(buf.getBuffer().length() + records * 16);
+        CharSequence text = buf.getBuffer();
+        long offset = spillBytes;
+        int start = 0;
+        for (int i = 0; i < records; i++) {
+            int end = indexOf(text, '\n', start);
+            long seq = ++lastSeq;
+            String line = "{\"seq\":" + seq + "," + text.subSequence(start + 1, end);
+            ring[(int) (seq % ring.length)] = line;
+            if ((seq - 1) % INDEX_EVERY == 0) {
+                if (indexed == index.length) index = Arrays.copyOf(index, indexed * 2);
+                index[indexed++] = offset;
+            }
+            lines.append(line).append('\n');
+            offset += utf8Length(line) + 1;
+            start = end + 1;
+        }
+        ByteBuffer bytes = StandardCharsets.UTF_8.encode(lines.toString());
+        spillBytes += bytes.remaining();
+        while (bytes.hasRemaining()) spill.write(bytes);
+    }
+
+    private static int indexOf(CharSequence s, char c, int from) {
+        for (int i = from; i < s.length(); i++) if (s.charAt(i) == c) return i;
+        return s.length();
+    }
+
+    private static long utf8Length(CharSequence s) {
+        long n = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) n++;
+            else if (c < 0x800) n += 2;
+            else if (Character.isHighSurrogate(c)) { n += 4; i++; }
+            else n += 3;
+        }
+        return n;
+    }
+}
@@ -0,0 +1,114 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Circulation aggregates kept up to date as loans are issued and returned, so reports cost the
+// size of the answer rather than of the loan history: issues per book and per user, issues and
+// returns per day, and the top `k` books and users by issues. Library feeds it from every path
+// that creates or returns a loan and rebuilds it from scratch on load (recomputeStats).
+public class CirculationStats {
+    public record Ranked(int id, long count) {}
+
+    private final Map<Integer, AtomicLong> bookIssues = new ConcurrentHashMap<>();
+    private final Map<Integer, AtomicLong> userIssues = new ConcurrentHashMap<>();
+    private final NavigableMap<LocalDate, LongAdder> issuesByDay = new ConcurrentSkipListMap<>();
+    private final NavigableMap<LocalDate, LongAdder> returnsByDay = new ConcurrentSkipListMap<>();
+    private final LongAdder totalIssues = new LongAdder();
+    private final TopK topBooks, topUsers;
+
+    public CirculationStats(int k) {
+        if (k < 1) throw new IllegalArgumentException("k must be >= 1");
+        topBooks = new TopK(k);
+        topUsers = new TopK(k);
+    }
+
+    void loanIssued(IssuedRecord r) {
+        totalIssues.increment();
+        issuesByDay.computeIfAbsent(r.getIssueDate(), d -> new LongAdder()).increment();
+        topBooks.offer(r.getBookId(), bookIssues.computeIfAbsent(r.getBookId(), id -> new AtomicLong()).incrementAndGet());
+        topUsers.offer(r.getUserId(), userIssues.computeIfAbsent(r.getUserId(), id -> new AtomicLong()).incrementAndGet());
+    }
+
+    void loanReturned(LocalDate day) {
+        returnsByDay.computeIfAbsent(day, d -> new LongAdder()).increment();
+    }
+
+    public long getTotalIssues() { return totalIssues.sum(); }
+
+    public long getIssueCount(int bookId) {
+        AtomicLong c = bookIssues.get(bookId);
+        return c == null ? 0 : c.get();
+    }
+
+    public long getUserIssueCount(int userId) {
+        AtomicLong c = userIssues.get(userId);
+        return c == null ? 0 : c.get();
+    }
+
+    // Most issued first; at most k entries however large n is.
+    public List<Ranked> getTopBooks(int n) { return topBooks.top(n); }
+    public List<Ranked> getTopUsers(int n) { return topUsers.top(n); }
+
+    // Days in [from, to] with at least one issue (or return), in date order.
+    public NavigableMap<LocalDate, Long> getDailyIssues(LocalDate from, LocalDate to) { return days(issuesByDay, from, to); }
+    public NavigableMap<LocalDate, Long> getDailyReturns(LocalDate from, LocalDate to) { return days(returnsByDay, from, to); }
+
+    private static NavigableMap<LocalDate, Long> days(NavigableMap<LocalDate, LongAdder> m, LocalDate from, LocalDate to) {
+        NavigableMap<LocalDate, Long> out = new TreeMap<>();
+        for (Map.Entry<LocalDate, LongAdder> e : m.subMap(from, true, to, true).entrySet()) out.put(e.getKey(), e.getValue().sum());
+        return out;
+    }
+
+    // The k ids with the highest counts. Counts only grow, so an id outside the set can only
+    // get in by passing the smallest count inside it, which makes the set exact. Offers at or
+    // below that floor (the common case once the set is full) return without taking the lock.
+    private static final class TopK {
+        private static final Comparator<Ranked> ORDER =
+                Comparator.comparingLong(Ranked::count).reversed().thenComparingInt(Ranked::id);
+
+        private final int k;
+        private final Map<Integer, Long> members = new HashMap<>();
+        private final TreeSet<Ranked> order = new TreeSet<>(ORDER);
+        private volatile long floor;
+
+        TopK(int k) { this.k = k; }
+
+        void offer(int id, long count) {
+            if (count <= floor) return;
+            synchronized (this) {
+                Long old = members.get(id);
+                if (old != null) {
+                    if (count <= old) return; // a later count got here first
+                    order.remove(new Ranked(id, old));
+                } else if (members.size() == k) {
+                    Ranked last = order.last();
+                    if (count <= last.count()) return;
+                    order.remove(last);
+                    members.remove(last.id());
+                }
+                members.put(id, count);
+                order.add(new Ranked(id, count));
+                floor = members.size() == k ? order.last().count() : 0;
+            }
+        }
+
+        synchronized List<Ranked> top(int n) {
+            List<Ranked> out = new ArrayList<>(Math.min(n, order.size()));
+            for (Ranked r : order) {
+                if (out.size() == n) break;
+                out.add(r);
+            }
+            return out;
+        }
+    }
+}
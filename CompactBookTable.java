@@ -0,0 +1,190 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+// Struct-of-arrays book store for multi-million-title catalogs. A book is a row across
+// primitive columns (id, copy counts, pooled author index, end offset into a UTF-8 title heap)
+// rather than an object holding two Strings, and the id index is a dense directory instead of
+// a hash table (ids are handed out sequentially). Rows live in fixed-size chunks that never
+// move, so copy counts are CAS-updated in place without a lock and readers need none either;
+// only appends are serialized. get() returns a throwaway Book view over the row.
+public class CompactBookTable implements Table<Book> {
+    private static final int SHIFT = 14;
+    private static final int CHUNK = 1 << SHIFT;
+    private static final int MASK = CHUNK - 1;
+    private static final VarHandle INT = MethodHandles.arrayElementVarHandle(int[].class);
+
+    private static final class Chunk {
+        final int[] id = new int[CHUNK];
+        final int[] available = new int[CHUNK];
+        final int[] total = new int[CHUNK];
+        final int[] author = new int[CHUNK];
+        final int[] titleEnd = new int[CHUNK];
+        volatile byte[] titles = new byte[CHUNK * 16];
+    }
+
+    private final StringPool pool;
+    private volatile Chunk[] chunks = new Chunk[0];
+    // pages of id -> row + 1 (0 = absent), one page per CHUNK ids, allocated as ids show up
+    private volatile int[][] rowOfId = new int[0][];
+    // ids below zero can't use the directory; they are rare enough to live in a map
+    private final IntMap<Integer> negativeIds = new IntMap<>();
+    // rows [0, size) are complete; the volatile write publishes each new row
+    private volatile int size;
+
+    public CompactBookTable(StringPool pool) { this.pool = pool; }
+
+    public Book get(int id) {
+        int row = rowOf(id);
+        return row < 0 ? null : new Row(row);
+    }
+
+    public synchronized boolean add(Book b) {
+        int id = b.getId();
+        if (rowOf(id) >= 0) return false;
+        int row = size;
+        if (row >>> SHIFT == chunks.length) grow(1);
+        Chunk c = chunks[row >>> SHIFT];
+        int i = row & MASK;
+        c.id[i] = id;
+        c.available[i] = b.getAvailableCopies();
+        c.total[i] = b.getTotalCopies();
+        c.author[i] = pool.intern(b.getAuthor());
+        byte[] title = b.getTitle().getBytes(StandardCharsets.UTF_8);
+        int start = i == 0 ? 0 : c.titleEnd[i - 1];
+        byte[] heap = c.titles;
+        if (start + title.length > heap.length) heap = Arrays.copyOf(heap, Math.max(heap.length * 2, start + title.length));
+        System.arraycopy(title, 0, heap, start, title.length);
+        c.titles = heap;
+        c.titleEnd[i] = start + title.length;
+        if (id < 0) {
+            negativeIds.put(id, row);
+        } else {
+            int[][] dir = rowOfId;
+            int page = id >>> SHIFT;
+            if (page >= dir.length) dir = Arrays.copyOf(dir, Math.max(page + 1, dir.length * 2));
+            if (dir[page] == null) dir[page] = new int[CHUNK];
+            dir[page][id & MASK] = row + 1;
+            rowOfId = dir;
+        }
+        size = row + 1;
+        return true;
+    }
+
+    public synchronized void ensureCapacity(int extra) {
+        int needed = (int) ((size + (long) extra + MASK) >>> SHIFT);
+        if (needed > chunks.length) grow(needed - chunks.length);
+    }
+
+    public int size() { return size; }
+
+    // Rows are live views, as IdTable's entries are live objects; only the row set is fixed.
+    public List<Book> snapshot() { return rows(size); }
+
+    public List<Book> view() { return rows(size); }
+
+    // Walks the id directory up from afterId, skipping pages no id has reached. Negative ids
+    // (only a hand-edited file brings them) are found by a scan of the rows.
+    public List<Book> page(int afterId, int limit) {
+        List<Book> out = new ArrayList<>(Math.min(Math.max(limit, 0), 256));
+        if (limit <= 0) return out;
+        int n = size;
+        if (afterId < -1 && !negativeIds.isEmpty()) {
+            List<Book> neg = new ArrayList<>();
+            for (int row = 0; row < n; row++) {
+                Row r = new Row(row);
+                if (r.getId() < 0 && r.getId() > afterId) neg.add(r);
+            }
+            neg.sort(Comparator.comparingInt(Book::getId));
+            for (Book b : neg) {
+                if (out.size() == limit) return out;
+                out.add(b);
+            }
+        }
+        int[][] dir = rowOfId;
+        for (long id = Math.max(afterId + 1L, 0); out.size() < limit && (id >>> SHIFT) < dir.length; ) {
+            int[] page = dir[(int) (id >>> SHIFT)];
+            if (page == null) {
+                id = ((id >>> SHIFT) + 1) << SHIFT;
+                continue;
+            }
+            int row = page[(int) (id & MASK)] - 1;
+            if (row >= 0 && row < n) out.add(new Row(row));
+            id++;
+        }
+        return out;
+    }
+
+    private List<Book> rows(int n) {
+        return new AbstractList<>() {
+            public Book get(int row) {
+                if (row < 0 || row >= n) throw new IndexOutOfBoundsException(row);
+                return new Row(row);
+            }
+            public int size() { return n; }
+        };
+    }
+
+    private int rowOf(int id) {
+        if (id < 0) {
+            synchronized (this) {
+                Integer row = negativeIds.get(id);
+                return row == null ? -1 : row;
+            }
+        }
+        int[][] dir = rowOfId;
+        int page = id >>> SHIFT;
+        if (page >= dir.length || dir[page] == null) return -1;
+        int row = dir[page][id & MASK] - 1;
+        // reading size after the entry makes the row's columns visible, or rejects a half-added row
+        return row < size ? row : -1;
+    }
+
+    private void grow(int more) {
+        Chunk[] next = Arrays.copyOf(chunks, chunks.length + more);
+        for (int k = chunks.length; k < next.length; k++) next[k] = new Chunk();
+        chunks = next;
+    }
+
+    private final class Row extends Book {
+        private final Chunk c;
+        private final int i;
+
+        Row(int row) {
+            this(chunks[row >>> SHIFT], row & MASK);
+        }
+
+        private Row(Chunk c, int i) {
+            super(c.id[i], null, null, 0, 0);
+            this.c = c;
+            this.i = i;
+        }
+
+        @Override public String getTitle() {
+            int start = i == 0 ? 0 : c.titleEnd[i - 1];
+            return new String(c.titles, start, c.titleEnd[i] - start, StandardCharsets.UTF_8);
+        }
+        @Override public String getAuthor() { return pool.get(c.author[i]); }
+        @Override public int getAvailableCopies() { return (int) INT.getVolatile(c.available, i); }
+        @Override public int getTotalCopies() { return c.total[i]; }
+
+        @Override public boolean decrementAvailable() {
+            for (int n = getAvailableCopies(); n > 0; n = getAvailableCopies()) {
+                if (INT.compareAndSet(c.available, i, n, n - 1)) return true;
+            }
+            return false;
+        }
+        @Override public boolean incrementAvailable() {
+            for (int n = getAvailableCopies(); n < c.total[i]; n = getAvailableCopies()) {
+                if (INT.compareAndSet(c.available, i, n, n + 1)) return true;
+            }
+            return false;
+        }
+        @Override void adjustAvailable(int delta) { INT.getAndAdd(c.available, i, delta); }
+    }
+}
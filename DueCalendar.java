@@ -0,0 +1,52 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.LongAdder;
+
+// Open loans bucketed by due date. Only loans that haven't been returned live here, so range
+// queries ("overdue", "due in the next N days") touch the matching days and nothing else.
+// Lock-free: a skip list of days, each a skip-list set in id order, so issues and returns
+// never wait on each other here and readers see each day as it is while they pass it. A day's
+// set stays once emptied (dropping it could lose a loan added to it meanwhile); that is one
+// small set per calendar day.
+public class DueCalendar {
+    private static final Comparator<IssuedRecord> BY_ID = Comparator.comparingInt(IssuedRecord::getId);
+
+    private final ConcurrentSkipListMap<LocalDate, Set<IssuedRecord>> byDue = new ConcurrentSkipListMap<>();
+    private final LongAdder size = new LongAdder();
+
+    public void add(IssuedRecord r) {
+        if (byDue.computeIfAbsent(r.getDueDate(), d -> new ConcurrentSkipListSet<>(BY_ID)).add(r)) size.increment();
+    }
+
+    public void remove(IssuedRecord r) {
+        Set<IssuedRecord> day = byDue.get(r.getDueDate());
+        if (day != null && day.remove(r)) size.decrement();
+    }
+
+    // Loans due strictly before `day`, earliest first.
+    public List<IssuedRecord> dueBefore(LocalDate day) {
+        return collect(byDue.headMap(day, false).values());
+    }
+
+    // Loans due in [from, to], earliest first.
+    public List<IssuedRecord> dueBetween(LocalDate from, LocalDate to) {
+        if (to.isBefore(from)) return new ArrayList<>();
+        return collect(byDue.subMap(from, true, to, true).values());
+    }
+
+    public int size() { return size.intValue(); }
+
+    private static List<IssuedRecord> collect(Collection<Set<IssuedRecord>> days) {
+        List<IssuedRecord> out = new ArrayList<>();
+        for (Set<IssuedRecord> day : days) {
+            for (IssuedRecord r : day) if (r.getReturnDate() == null) out.add(r);
+        }
+        return out;
+    }
+}
@@ -0,0 +1,61 @@
+import java.io.IOException;
+import java.time.LocalDate;
+
+// A patron waiting for a copy of a book. Immutable: a hold is either waiting or gone, and
+// when a copy comes back it turns into a loan of `days` days for the patron.
+public class Hold {
+    private final int id;
+    private final int bookId;
+    private final int userId;
+    private final LocalDate placedDate;
+    private final int days;
+
+    public Hold(int id, int bookId, int userId, LocalDate placedDate, int days) {
+        this.id = id;
+        this.bookId = bookId;
+        this.userId = userId;
+        this.placedDate = placedDate;
+        this.days = days;
+    }
+
+    public int getId() { return id; }
+    public int getBookId() { return bookId; }
+    public int getUserId() { return userId; }
+    public LocalDate getPlacedDate() { return placedDate; }
+    public int getDays() { return days; }
+
+    @Override
+    public String toString() {
+        return RowFormatter.appendHold(new StringBuilder(80), this).toString();
+    }
+
+    public void writeJson(JsonWriter out) throws IOException {
+        out.beginObject();
+        out.name("id").value(id);
+        out.name("bookId").value(bookId);
+        out.name("userId").value(userId);
+        out.name("placedDate").value(placedDate);
+        out.name("days").value(days);
+        out.endObject();
+    }
+
+    // Reads one object; returns null if it has no id.
+    public static Hold readJson(JsonReader in) throws IOException {
+        int id = -1, bookId = -1, userId = -1, days = 14;
+        String placed = "";
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "id" -> id = in.nextInt();
+                case "bookId" -> bookId = in.nextInt();
+                case "userId" -> userId = in.nextInt();
+                case "placedDate" -> placed = in.nextString();
+                case "days" -> days = in.nextInt();
+                default -> in.skipValue();
+            }
+        }
+        in.endObject();
+        if (id == -1) return null;
+        return new Hold(id, bookId, userId, LocalDate.parse(placed), days);
+    }
+}
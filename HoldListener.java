@@ -0,0 +1,5 @@
+// Told when a returned copy has gone straight to the next patron waiting for it. Called on the
+// returning thread once the return is complete, so it should hand slow work (mail, SMS) off.
+public interface HoldListener {
+    void holdFilled(Hold hold, IssuedRecord loan);
+}
@@ -0,0 +1,109 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+// Waiting lists, one per book, first come first served. Each list is an insertion-ordered
+// map keyed by hold id, so taking the head and cancelling from the middle are both O(1).
+// A book's list is also the lock that makes "queue or take a copy" and "hand over or shelve"
+// atomic with respect to each other (see Library.placeHold and handOff).
+public class HoldQueue {
+    private final Map<Integer, LinkedHashMap<Integer, Hold>> byBook = new ConcurrentHashMap<>();
+    private final Map<Integer, Hold> byId = new ConcurrentHashMap<>();
+
+    // For loading: false if the id is already there.
+    public boolean add(Hold h) {
+        LinkedHashMap<Integer, Hold> q = queue(h.getBookId());
+        synchronized (q) {
+            if (byId.putIfAbsent(h.getId(), h) != null) return false;
+            q.put(h.getId(), h);
+            return true;
+        }
+    }
+
+    // Queues make.get() if `when` is true under the book's lock and the patron isn't already
+    // waiting for the book; null otherwise. The hold is made under the lock too, so ids within
+    // a book follow queue order.
+    public Hold addIf(int bookId, int userId, BooleanSupplier when, Supplier<Hold> make) {
+        LinkedHashMap<Integer, Hold> q = queue(bookId);
+        synchronized (q) {
+            if (!when.getAsBoolean()) return null;
+            for (Hold other : q.values()) if (other.getUserId() == userId) return null;
+            Hold h = make.get();
+            q.put(h.getId(), h);
+            byId.put(h.getId(), h);
+            return h;
+        }
+    }
+
+    // Takes the first hold on the book, or if nobody waits runs `otherwise` under the same lock.
+    // `taking` sees the hold under the lock before it leaves the queue; if it throws, it stays.
+    public Hold pollOr(int bookId, Runnable otherwise, Consumer<Hold> taking) {
+        LinkedHashMap<Integer, Hold> q = queue(bookId);
+        synchronized (q) {
+            Iterator<Hold> it = q.values().iterator();
+            if (!it.hasNext()) {
+                otherwise.run();
+                return null;
+            }
+            Hold h = it.next();
+            taking.accept(h);
+            it.remove();
+            byId.remove(h.getId());
+            return h;
+        }
+    }
+
+    public Hold remove(int holdId) { return remove(holdId, h -> { }); }
+
+    // Like pollOr, runs `removing` under the lock first and keeps the hold if it throws.
+    public Hold remove(int holdId, Consumer<Hold> removing) {
+        Hold h = byId.get(holdId);
+        if (h == null) return null;
+        LinkedHashMap<Integer, Hold> q = queue(h.getBookId());
+        synchronized (q) {
+            if (!q.containsKey(holdId)) return null; // taken meanwhile
+            removing.accept(h);
+            q.remove(holdId);
+            byId.remove(holdId);
+            return h;
+        }
+    }
+
+    public Hold get(int holdId) { return byId.get(holdId); }
+
+    public int size() { return byId.size(); }
+
+    // In queue order.
+    public List<Hold> forBook(int bookId) {
+        LinkedHashMap<Integer, Hold> q = byBook.get(bookId);
+        if (q == null) return List.of();
+        synchronized (q) {
+            return new ArrayList<>(q.values());
+        }
+    }
+
+    public List<Hold> forUser(int userId) {
+        List<Hold> out = new ArrayList<>();
+        for (Hold h : byId.values()) if (h.getUserId() == userId) out.add(h);
+        out.sort(Comparator.comparingInt(Hold::getId));
+        return out;
+    }
+
+    // Every hold by id, which within a book is also queue order.
+    public List<Hold> all() {
+        List<Hold> out = new ArrayList<>(byId.values());
+        out.sort(Comparator.comparingInt(Hold::getId));
+        return out;
+    }
+
+    private LinkedHashMap<Integer, Hold> queue(int bookId) {
+        return byBook.computeIfAbsent(bookId, id -> new LinkedHashMap<>());
+    }
+}
@@ -0,0 +1,122 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+
+// Entity list in id order plus its id index, safe for concurrent use. Lookups take an
+// optimistic read and only fall back to a shared lock if a writer raced them, so readers
+// never write to shared memory; appends hold the write lock for an O(1) insert. Ids mostly
+// arrive in order; one that doesn't (a racing issue, a replayed record) is slotted in a few
+// places from the end, which keeps page() a binary search.
+public class IdTable<T> implements Table<T> {
+    private final ToIntFunction<T> idOf;
+    private final ArrayList<T> list = new ArrayList<>();
+    private final IntMap<T> index = new IntMap<>();
+    private final StampedLock lock = new StampedLock();
+
+    public IdTable(ToIntFunction<T> idOf) { this.idOf = idOf; }
+
+    public T get(int id) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            T v = null;
+            try {
+                v = index.get(id);
+            } catch (RuntimeException torn) {
+                // a concurrent resize can expose mismatched arrays; validate() fails below
+            }
+            if (lock.validate(stamp)) return v;
+        }
+        stamp = lock.readLock();
+        try {
+            return index.get(id);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // First one wins, as with the old linear lookups.
+    public boolean add(T v) {
+        long stamp = lock.writeLock();
+        try {
+            int id = idOf.applyAsInt(v);
+            if (index.putIfAbsent(id, v) != null) return false;
+            int n = list.size();
+            if (n == 0 || idOf.applyAsInt(list.get(n - 1)) < id) list.add(v);
+            else list.add(firstAfter(id), v);
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public void ensureCapacity(int extra) {
+        long stamp = lock.writeLock();
+        try {
+            list.ensureCapacity(list.size() + extra);
+            index.ensureCapacity(index.size() + extra);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // Removes every entry matching the filter in one pass; returns them in list order.
+    public List<T> removeIf(Predicate<T> filter) {
+        List<T> removed = new ArrayList<>();
+        long stamp = lock.writeLock();
+        try {
+            list.removeIf(v -> {
+                if (!filter.test(v)) return false;
+                index.remove(idOf.applyAsInt(v));
+                removed.add(v);
+                return true;
+            });
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        return removed;
+    }
+
+    public int size() {
+        long stamp = lock.readLock();
+        try {
+            return list.size();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public List<T> snapshot() {
+        long stamp = lock.readLock();
+        try {
+            return List.copyOf(list);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public List<T> view() { return Collections.unmodifiableList(list); }
+
+    public List<T> page(int afterId, int limit) {
+        long stamp = lock.readLock();
+        try {
+            int from = firstAfter(afterId), to = (int) Math.min(list.size(), (long) from + Math.max(limit, 0));
+            return from >= to ? List.of() : List.copyOf(list.subList(from, to));
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // Position of the first entry with an id above `id`; under the lock.
+    private int firstAfter(int id) {
+        int lo = 0, hi = list.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (idOf.applyAsInt(list.get(mid)) <= id) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+}
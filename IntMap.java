@@ -0,0 +1,124 @@
+import java.util.Arrays;
+
+// Open-addressing hash map keyed by a primitive int, so id lookups don't box.
+// Linear probing; a null value marks an empty slot, so values must not be null.
+public class IntMap<V> {
+    private static final float LOAD_FACTOR = 0.6f;
+
+    private int[] keys;
+    private Object[] vals;
+    private int size;
+    private int threshold;
+
+    public IntMap() { this(16); }
+
+    public IntMap(int expected) {
+        int cap = tableSizeFor((int) Math.ceil(Math.max(expected, 4) / LOAD_FACTOR));
+        keys = new int[cap];
+        vals = new Object[cap];
+        threshold = (int) (cap * LOAD_FACTOR);
+    }
+
+    public int size() { return size; }
+    public boolean isEmpty() { return size == 0; }
+
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        int mask = keys.length - 1;
+        for (int i = hash(key) & mask; vals[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) return (V) vals[i];
+        }
+        return null;
+    }
+
+    public boolean containsKey(int key) { return get(key) != null; }
+
+    // Returns the previous value, or null if the key was absent.
+    @SuppressWarnings("unchecked")
+    public V put(int key, V value) {
+        if (value == null) throw new IllegalArgumentException("null value");
+        int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        for (; vals[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                V old = (V) vals[i];
+                vals[i] = value;
+                return old;
+            }
+        }
+        keys[i] = key;
+        vals[i] = value;
+        if (++size > threshold) resize(keys.length << 1);
+        return null;
+    }
+
+    // Keeps the existing mapping if there is one; returns it, or null if the value was inserted.
+    public V putIfAbsent(int key, V value) {
+        V cur = get(key);
+        if (cur != null) return cur;
+        put(key, value);
+        return null;
+    }
+
+    // Backward-shift deletion, so lookups never need tombstones.
+    @SuppressWarnings("unchecked")
+    public V remove(int key) {
+        int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        for (; vals[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) break;
+        }
+        if (vals[i] == null) return null;
+        V old = (V) vals[i];
+        int gap = i;
+        for (int j = (i + 1) & mask; vals[j] != null; j = (j + 1) & mask) {
+            int home = hash(keys[j]) & mask;
+            // move j back into the gap unless its home slot lies cyclically in (gap, j]
+            if (((j - home) & mask) >= ((j - gap) & mask)) {
+                keys[gap] = keys[j];
+                vals[gap] = vals[j];
+                gap = j;
+            }
+        }
+        vals[gap] = null;
+        size--;
+        return old;
+    }
+
+    // Grows the table up front so `expected` entries fit without rehashing along the way.
+    public void ensureCapacity(int expected) {
+        int cap = tableSizeFor((int) Math.ceil(expected / LOAD_FACTOR));
+        if (cap > keys.length) resize(cap);
+    }
+
+    public void clear() {
+        Arrays.fill(vals, null);
+        size = 0;
+    }
+
+    private void resize(int newCap) {
+        int[] oldKeys = keys;
+        Object[] oldVals = vals;
+        keys = new int[newCap];
+        vals = new Object[newCap];
+        threshold = (int) (newCap * LOAD_FACTOR);
+        int mask = newCap - 1;
+        for (int j = 0; j < oldVals.length; j++) {
+            if (oldVals[j] == null) continue;
+            int i = hash(oldKeys[j]) & mask;
+            while (vals[i] != null) i = (i + 1) & mask;
+            keys[i] = oldKeys[j];
+            vals[i] = oldVals[j];
+        }
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static int tableSizeFor(int n) {
+        int cap = Integer.highestOneBit(Math.max(n - 1, 1)) << 1;
+        return cap < 0 ? 1 << 30 : cap;
+    }
+}
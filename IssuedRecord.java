@@ -1,6 +1,8 @@
 import java.time.LocalDate;
-import java.util.regex.Pattern;
-import java.util.regex.Matcher;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 public class IssuedRecord {
     private final int id;
@@ -8,7 +10,10 @@ public class IssuedRecord {
     private final int userId;
     private final LocalDate issueDate;
     private final LocalDate dueDate;
-    private LocalDate returnDate; // nullable
+    private volatile LocalDate returnDate; // nullable
+
+    private static final AtomicReferenceFieldUpdater<IssuedRecord, LocalDate> RETURN_DATE =
+            AtomicReferenceFieldUpdater.newUpdater(IssuedRecord.class, LocalDate.class, "returnDate");
 
     public IssuedRecord(int id, int bookId, int userId, LocalDate issueDate, LocalDate dueDate, LocalDate returnDate) {
         this.id = id;
@@ -26,59 +31,64 @@ public class IssuedRecord {
     public LocalDate getDueDate() { return dueDate; }
     public LocalDate getReturnDate() { return returnDate; }
     public void setReturnDate(LocalDate d) { this.returnDate = d; }
+    // Sets the return date only if the loan is still open; exactly one concurrent caller wins.
+    public boolean markReturned(LocalDate d) { return RETURN_DATE.compareAndSet(this, null, d); }
 
     @Override
     public String toString() {
-        return String.format("IssuedID:%d | BookID:%d | UserID:%d | Issued:%s | Due:%s | Returned:%s",
-                id, bookId, userId, issueDate, dueDate, returnDate == null ? "-" : returnDate.toString());
+        return RowFormatter.appendLoan(new StringBuilder(96), this).toString();
     }
 
     public String toJson() {
-        StringBuilder sb = new StringBuilder();
-        sb.append("{\n");
-        sb.append("  \"id\": ").append(id).append(",\n");
-        sb.append("  \"bookId\": ").append(bookId).append(",\n");
-        sb.append("  \"userId\": ").append(userId).append(",\n");
-        sb.append("  \"issueDate\": \"").append(issueDate.toString()).append("\",\n");
-        sb.append("  \"dueDate\": \"").append(dueDate.toString()).append("\",\n");
-        sb.append("  \"returnDate\": ").append(returnDate == null ? "null" : "\"" + returnDate.toString() + "\"").append("\n");
-        sb.append("}");
-        return sb.toString();
+        StringWriter sw = new StringWriter();
+        try {
+            writeJson(new JsonWriter(sw));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return sw.toString();
+    }
+
+    public void writeJson(JsonWriter out) throws IOException {
+        out.beginObject();
+        out.name("id").value(id);
+        out.name("bookId").value(bookId);
+        out.name("userId").value(userId);
+        out.name("issueDate").value(issueDate);
+        out.name("dueDate").value(dueDate);
+        out.name("returnDate").value(returnDate);
+        out.endObject();
     }
 
     public static IssuedRecord fromJson(String text) {
-        int id = extractInt(text, "\"id\"\\s*:\\s*(\\d+)");
-        int bookId = extractInt(text, "\"bookId\"\\s*:\\s*(\\d+)");
-        int userId = extractInt(text, "\"userId\"\\s*:\\s*(\\d+)");
-        String issue = extractString(text, "\"issueDate\"\\s*:\\s*\"(.*?)\"");
-        String due = extractString(text, "\"dueDate\"\\s*:\\s*\"(.*?)\"");
-        String ret = extractStringOptional(text, "\"returnDate\"\\s*:\\s*(null|\"(.*?)\")");
+        try {
+            return readJson(new JsonReader(text));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Reads one object; returns null if it has no id.
+    public static IssuedRecord readJson(JsonReader in) throws IOException {
+        int id = -1, bookId = -1, userId = -1;
+        String issue = "", due = "", ret = null;
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "id" -> id = in.nextInt();
+                case "bookId" -> bookId = in.nextInt();
+                case "userId" -> userId = in.nextInt();
+                case "issueDate" -> issue = in.nextString();
+                case "dueDate" -> due = in.nextString();
+                case "returnDate" -> ret = in.nextString();
+                default -> in.skipValue();
+            }
+        }
+        in.endObject();
         if (id == -1) return null;
         LocalDate issueDate = LocalDate.parse(issue);
         LocalDate dueDate = LocalDate.parse(due);
-        LocalDate returnDate = "null".equals(ret) ? null : LocalDate.parse(ret);
+        LocalDate returnDate = ret == null ? null : LocalDate.parse(ret);
         return new IssuedRecord(id, bookId, userId, issueDate, dueDate, returnDate);
     }
-
-    private static int extractInt(String t, String regex) {
-        Pattern p = Pattern.compile(regex, Pattern.DOTALL);
-        Matcher m = p.matcher(t);
-        if (m.find()) try { return Integer.parseInt(m.group(1)); } catch (Exception ignored) {}
-        return -1;
-    }
-    private static String extractString(String t, String regex) {
-        Pattern p = Pattern.compile(regex, Pattern.DOTALL);
-        Matcher m = p.matcher(t);
-        if (m.find()) return m.group(1);
-        return "";
-    }
-    private static String extractStringOptional(String t, String regex) {
-        Pattern p = Pattern.compile(regex, Pattern.DOTALL);
-        Matcher m = p.matcher(t);
-        if (m.find()) {
-            if (m.group(1).equals("null")) return "null";
-            if (m.groupCount() >= 2) return m.group(2) == null ? "" : m.group(2);
-        }
-        return "";
-    }
 }
@@ -0,0 +1,132 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+// Append-only write-ahead log of Library mutations, one RecordLog record per line.
+// The snapshot plus this file is the full state; Library.checkpoint() folds it back into the
+// snapshot and drops the part the snapshot covers. Replay lives in Library and is idempotent
+// by id.
+public class Journal extends RecordLog implements Closeable {
+    public enum FsyncPolicy {
+        ALWAYS, // force after every record
+        BATCH,  // force every BATCH_SIZE records and on close
+        NEVER   // leave it to the OS
+    }
+
+    private static final int BATCH_SIZE = 64;
+
+    private final Path path;
+    private FileChannel ch;
+    private final FsyncPolicy policy;
+    private int unsynced;
+    private long size; // bytes of whole records; the file never holds more once emit returns
+    private boolean broken; // a failed append couldn't be cut back off the file
+    private Metrics.Counter bytesWritten = Metrics.NOOP.counter("bytesWritten");
+    private Metrics.Timer fsync = Metrics.NOOP.timer("journal.fsync");
+
+    // A torn last record (a crash mid-append; replay has skipped it) is cut off, so the next
+    // append starts a line of its own.
+    public Journal(Path path, FsyncPolicy policy) throws IOException {
+        this.path = path;
+        this.ch = open(path);
+        this.policy = policy;
+        this.size = JsonSections.completeLength(ch);
+        if (size < ch.size()) ch.truncate(size).position(size);
+    }
+
+    public synchronized void instrument(Metrics m) {
+        bytesWritten = m.counter("bytesWritten");
+        fsync = m.timer("journal.fsync");
+    }
+
+    public static Path pathFor(Path snapshot) {
+        return snapshot.resolveSibling(snapshot.getFileName() + ".journal");
+    }
+
+    public synchronized long size() { return size; }
+
+    public synchronized void sync() throws IOException {
+        long t = fsync.start();
+        ch.force(false);
+        fsync.stop(t);
+        unsynced = 0;
+    }
+
+    // Called once the snapshot covering every record has been durably written.
+    public synchronized void truncate() throws IOException {
+        ch.truncate(0);
+        size = 0;
+        sync();
+    }
+
+    // Drops the first `upTo` bytes, which a durable snapshot now covers, and keeps whatever was
+    // appended after them. The tail is copied to a fresh file that atomically replaces this
+    // one, so a crash leaves either the old journal (replay is idempotent) or the new one.
+    public synchronized void dropPrefix(long upTo) throws IOException {
+        if (upTo <= 0) return;
+        if (upTo >= size) {
+            truncate();
+            return;
+        }
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (long pos = upTo; pos < size; ) {
+                long n = ch.transferTo(pos, size - pos, out);
+                if (n <= 0) throw new IOException(path + " ends at " + pos + ", expected " + size + " bytes");
+                pos += n;
+            }
+            out.force(false);
+        }
+        ch.close();
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        ch = open(path);
+        size -= upTo;
+        unsynced = 0;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (unsynced > 0) sync();
+        ch.close();
+    }
+
+    // Readable for dropPrefix, so no APPEND: writes go at the position, kept at the end.
+    private static FileChannel open(Path path) throws IOException {
+        FileChannel ch = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        return ch.position(ch.size());
+    }
+
+    // All or nothing: if the write (or the sync the policy calls for) fails, the file is cut back to the last
+    // whole record so replay never meets half of one and later records stay readable. If even
+    // that fails, every later append fails too rather than land after the torn bytes.
+    @Override
+    protected void emit(int records) throws IOException {
+        if (records == 0) return;
+        if (broken) throw new IOException(path + " is unusable after a failed append");
+        ByteBuffer bytes = StandardCharsets.UTF_8.encode(CharBuffer.wrap(buf.getBuffer()));
+        int n = bytes.remaining();
+        boolean force = policy == FsyncPolicy.ALWAYS || (policy == FsyncPolicy.BATCH && unsynced + records >= BATCH_SIZE);
+        try {
+            while (bytes.hasRemaining()) ch.write(bytes);
+            if (force) sync();
+        } catch (IOException e) {
+            try {
+                ch.truncate(size).position(size);
+            } catch (IOException t) {
+                broken = true;
+                e.addSuppressed(t);
+            }
+            throw e;
+        }
+        size += n;
+        bytesWritten.add(n);
+        if (!force) unsynced += records;
+    }
+}
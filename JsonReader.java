@@ -0,0 +1,243 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Map;
+
+// Streaming pull tokenizer for the library.json format. Reads straight from a Reader through
+// a fixed buffer, so a file is parsed in one pass without holding it in memory as a String.
+// Lenient in the same places the old regex parser was: separators are skipped rather than
+// validated, and callers decide what to do with missing or unknown fields.
+public class JsonReader implements Closeable {
+    public enum Token { BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, STRING, NUMBER, BOOLEAN, NULL, END }
+
+    private final Reader in;
+    private final char[] buf = new char[8192];
+    private int pos;
+    private int limit;
+    private long consumed; // chars before buf[0], for error positions
+
+    private final StringBuilder sb = new StringBuilder();
+    // field names repeat for every record; hand back the same String instance each time
+    private final String[] names = new String[32];
+    private int nameCount;
+
+    public JsonReader(Reader in) { this.in = in; }
+    public JsonReader(String text) { this(new StringReader(text)); }
+
+    public Token peek() throws IOException {
+        int c = peekChar();
+        switch (c) {
+            case -1: return Token.END;
+            case '{': return Token.BEGIN_OBJECT;
+            case '}': return Token.END_OBJECT;
+            case '[': return Token.BEGIN_ARRAY;
+            case ']': return Token.END_ARRAY;
+            case '"': return Token.STRING;
+            case 't': case 'f': return Token.BOOLEAN;
+            case 'n': return Token.NULL;
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) return Token.NUMBER;
+                throw error("unexpected character '" + (char) c + "'");
+        }
+    }
+
+    public void beginObject() throws IOException { expect('{'); }
+    public void endObject() throws IOException { expect('}'); }
+    public void beginArray() throws IOException { expect('['); }
+    public void endArray() throws IOException { expect(']'); }
+
+    // True while the current object or array has more members.
+    public boolean hasNext() throws IOException {
+        int c = peekChar();
+        return c != '}' && c != ']' && c != -1;
+    }
+
+    public String nextName() throws IOException {
+        expect('"');
+        sb.setLength(0);
+        readStringBody();
+        expect(':');
+        return intern(sb);
+    }
+
+    // Returns null for a JSON null.
+    public String nextString() throws IOException {
+        if (peekChar() == 'n') { nextNull(); return null; }
+        expect('"');
+        sb.setLength(0);
+        readStringBody();
+        return sb.toString();
+    }
+
+    public int nextInt() throws IOException {
+        long v = nextLong();
+        if (v < Integer.MIN_VALUE || v > Integer.MAX_VALUE) throw error("number out of int range");
+        return (int) v;
+    }
+
+    public long nextLong() throws IOException {
+        int c = peekChar();
+        boolean neg = c == '-';
+        if (neg) pos++;
+        long v = 0;
+        int digits = 0;
+        while (true) {
+            if (pos == limit && !fill()) break;
+            c = buf[pos];
+            if (c < '0' || c > '9') break;
+            if (v > (Long.MAX_VALUE - 9) / 10) throw error("number too large");
+            v = v * 10 + (c - '0');
+            digits++;
+            pos++;
+        }
+        if (digits == 0) throw error("expected number");
+        if (c == '.' || c == 'e' || c == 'E') throw error("expected integer");
+        return neg ? -v : v;
+    }
+
+    public boolean nextBoolean() throws IOException {
+        if (peekChar() == 't') { literal("true"); return true; }
+        literal("false");
+        return false;
+    }
+
+    public void nextNull() throws IOException { literal("null"); }
+
+    // Reads an object of scalar fields as text (numbers and booleans as written, null as null);
+    // nested values are skipped. For request bodies and import rows.
+    public Map<String, String> nextFlatObject() throws IOException {
+        Map<String, String> out = new HashMap<>();
+        beginObject();
+        while (hasNext()) {
+            String name = nextName();
+            switch (peek()) {
+                case STRING, NULL -> out.put(name, nextString());
+                case NUMBER -> out.put(name, Long.toString(nextLong()));
+                case BOOLEAN -> out.put(name, Boolean.toString(nextBoolean()));
+                default -> skipValue();
+            }
+        }
+        endObject();
+        return out;
+    }
+
+    // Consumes the next value whatever its shape; used for fields we don't know about.
+    public void skipValue() throws IOException {
+        int depth = 0;
+        do {
+            switch (peek()) {
+                case BEGIN_OBJECT: beginObject(); depth++; break;
+                case BEGIN_ARRAY: beginArray(); depth++; break;
+                case END_OBJECT: endObject(); depth--; break;
+                case END_ARRAY: endArray(); depth--; break;
+                case STRING:
+                    expect('"');
+                    sb.setLength(0);
+                    readStringBody();
+                    if (depth > 0 && peekChar() == ':') pos++; // member name inside a skipped object
+                    break;
+                case NUMBER: nextLong(); break;
+                case BOOLEAN: nextBoolean(); break;
+                case NULL: nextNull(); break;
+                case END: throw error("unexpected end of input");
+            }
+        } while (depth > 0);
+    }
+
+    @Override
+    public void close() throws IOException { in.close(); }
+
+    // --- internals ---
+
+    // Skips whitespace and commas; separators carry no information for our shapes.
+    private int peekChar() throws IOException {
+        while (true) {
+            if (pos == limit && !fill()) return -1;
+            char c = buf[pos];
+            if (c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == ',') pos++;
+            else return c;
+        }
+    }
+
+    private void expect(char want) throws IOException {
+        int c = peekChar();
+        if (c != want) throw error("expected '" + want + "' but found " + (c == -1 ? "end of input" : "'" + (char) c + "'"));
+        pos++;
+    }
+
+    private void literal(String word) throws IOException {
+        peekChar();
+        for (int i = 0; i < word.length(); i++) {
+            if (pos == limit && !fill()) throw error("unexpected end of input");
+            if (buf[pos] != word.charAt(i)) throw error("expected " + word);
+            pos++;
+        }
+    }
+
+    // Reads up to and including the closing quote into sb.
+    private void readStringBody() throws IOException {
+        while (true) {
+            if (pos == limit && !fill()) throw error("unterminated string");
+            int start = pos;
+            while (pos < limit && buf[pos] != '"' && buf[pos] != '\\') pos++;
+            sb.append(buf, start, pos - start);
+            if (pos == limit) continue;
+            char c = buf[pos++];
+            if (c == '"') return;
+            sb.append(readEscape());
+        }
+    }
+
+    private char readEscape() throws IOException {
+        if (pos == limit && !fill()) throw error("unterminated escape");
+        char c = buf[pos++];
+        switch (c) {
+            case 'n': return '\n';
+            case 't': return '\t';
+            case 'r': return '\r';
+            case 'b': return '\b';
+            case 'f': return '\f';
+            case 'u': {
+                int v = 0;
+                for (int i = 0; i < 4; i++) {
+                    if (pos == limit && !fill()) throw error("unterminated escape");
+                    int d = Character.digit(buf[pos++], 16);
+                    if (d < 0) throw error("bad \\u escape");
+                    v = (v << 4) | d;
+                }
+                return (char) v;
+            }
+            default: return c; // \" \\ \/
+        }
+    }
+
+    private String intern(StringBuilder s) {
+        int len = s.length();
+        outer:
+        for (int i = 0; i < nameCount; i++) {
+            String n = names[i];
+            if (n.length() != len) continue;
+            for (int j = 0; j < len; j++) if (n.charAt(j) != s.charAt(j)) continue outer;
+            return n;
+        }
+        String n = s.toString();
+        if (nameCount < names.length) names[nameCount++] = n;
+        return n;
+    }
+
+    private boolean fill() throws IOException {
+        consumed += limit;
+        pos = 0;
+        limit = 0;
+        int n = in.read(buf, 0, buf.length);
+        if (n <= 0) return false;
+        limit = n;
+        return true;
+    }
+
+    private IOException error(String msg) {
+        return new IOException("Malformed JSON at char " + (consumed + pos) + ": " + msg);
+    }
+}
@@ -0,0 +1,180 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// Finds where the top-level fields of a library.json start and end, and for arrays where
+// every `stride`-th element starts, without parsing any of it: one pass over the file's bytes
+// through a fixed buffer that only tracks strings and nesting depth. That is what lets
+// Library.fromJsonParallel hand independent slices of the file to JsonReaders on different
+// threads while holding neither the text nor an offset per element. Structural characters are
+// ASCII and never occur inside a multi-byte UTF-8 sequence, so byte offsets are safe cut points.
+// As lenient as JsonReader about separators; member names are taken verbatim (our names have
+// no escapes).
+public class JsonSections {
+    // [start, end) of the value in bytes. For an array, count is its number of elements and
+    // chunks[i] is where element i * stride starts, the last entry where the last element
+    // ends; chunks is null for anything else.
+    public record Field(long start, long end, int count, long[] chunks) {}
+
+    private JsonSections() {}
+
+    public static Map<String, Field> split(FileChannel ch, int stride) throws IOException {
+        if (stride < 1) throw new IllegalArgumentException("stride must be >= 1");
+        Cursor c = new Cursor(ch);
+        Map<String, Field> fields = new HashMap<>();
+        c.expect('{');
+        while (c.skipSpace() != '}') {
+            String name = c.name();
+            c.expect(':');
+            long start = c.skipSpace() == '[' ? c.pos : -1;
+            if (start >= 0) {
+                fields.putIfAbsent(name, array(c, stride));
+            } else {
+                start = c.pos;
+                c.skipValue();
+                fields.putIfAbsent(name, new Field(start, c.pos, 0, null));
+            }
+        }
+        return fields;
+    }
+
+    private static Field array(Cursor c, int stride) throws IOException {
+        long start = c.pos;
+        long[] chunks = new long[16];
+        int n = 0, k = 0;
+        c.next(); // '['
+        long end = c.pos;
+        while (c.skipSpace() != ']') {
+            if (n % stride == 0) {
+                if (k + 1 >= chunks.length) chunks = Arrays.copyOf(chunks, chunks.length * 2);
+                chunks[k++] = c.pos;
+            }
+            c.skipValue();
+            end = c.pos;
+            n++;
+        }
+        c.next(); // ']'
+        chunks[k++] = end;
+        return new Field(start, c.pos, n, Arrays.copyOf(chunks, k));
+    }
+
+    // A JsonReader over bytes [from, to) of ch, read with positional reads, so any number of
+    // them can share the channel and its position is left alone.
+    public static JsonReader reader(FileChannel ch, long from, long to) {
+        InputStream in = new InputStream() {
+            long pos = from;
+
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+            }
+
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (pos >= to) return -1;
+                int n = ch.read(ByteBuffer.wrap(b, off, (int) Math.min(len, to - pos)), pos);
+                if (n > 0) pos += n;
+                return n;
+            }
+        };
+        return new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+    }
+
+    // Bytes of ch up to and including the last newline: the lines of a line-per-record file
+    // (journal, archive segment) that were appended whole.
+    public static long completeLength(FileChannel ch) throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(4096);
+        for (long end = ch.size(); end > 0; ) {
+            long from = Math.max(0, end - b.capacity());
+            b.clear().limit((int) (end - from));
+            while (b.hasRemaining()) if (ch.read(b, from + b.position()) < 0) throw new IOException("file shrank while read");
+            for (int i = b.limit() - 1; i >= 0; i--) if (b.get(i) == '\n') return from + i + 1;
+            end = from;
+        }
+        return 0;
+    }
+
+    // Byte-at-a-time cursor over the channel through a fixed buffer, starting at offset 0.
+    static class Cursor {
+        private final FileChannel ch;
+        private final ByteBuffer buf = ByteBuffer.allocate(1 << 16).flip();
+        long pos; // offset of the byte peek() returns
+
+        Cursor(FileChannel ch) { this.ch = ch; }
+
+        int peek() throws IOException {
+            if (!buf.hasRemaining()) {
+                buf.clear();
+                int n = ch.read(buf, pos);
+                buf.flip();
+                if (n < 0) return -1;
+            }
+            return buf.get(buf.position()) & 0xff;
+        }
+
+        int next() throws IOException {
+            int c = peek();
+            if (c < 0) throw error("unexpected end of input");
+            buf.get();
+            pos++;
+            return c;
+        }
+
+        // Skips whitespace and commas, like JsonReader; returns what follows.
+        int skipSpace() throws IOException {
+            int c;
+            while ((c = peek()) == ' ' || c == '\n' || c == '\r' || c == '\t' || c == ',') next();
+            if (c < 0) throw error("unexpected end of input");
+            return c;
+        }
+
+        void expect(char want) throws IOException {
+            if (skipSpace() != want) throw error("expected '" + want + "' but found '" + (char) peek() + "'");
+            next();
+        }
+
+        String name() throws IOException {
+            if (peek() != '"') throw error("expected member name");
+            next();
+            StringBuilder sb = new StringBuilder();
+            int c;
+            while ((c = next()) != '"') sb.append((char) c);
+            return sb.toString();
+        }
+
+        // The rest of a string whose opening quote was consumed.
+        void skipStringRest() throws IOException {
+            int c;
+            while ((c = next()) != '"') if (c == '\\') next();
+        }
+
+        void skipValue() throws IOException {
+            int depth = 0;
+            do {
+                int c = peek();
+                if (c < 0) throw error("unexpected end of input");
+                switch (c) {
+                    case '{', '[' -> { depth++; next(); }
+                    case '}', ']' -> { depth--; next(); }
+                    case '"' -> { next(); skipStringRest(); }
+                    default -> {
+                        if (depth == 0) {
+                            while ((c = peek()) >= 0 && ",}] \t\r\n".indexOf(c) < 0) next();
+                        } else {
+                            next();
+                        }
+                    }
+                }
+            } while (depth > 0);
+        }
+
+        IOException error(String msg) {
+            return new IOException("Malformed JSON at byte " + pos + ": " + msg);
+        }
+    }
+}
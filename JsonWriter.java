@@ -0,0 +1,146 @@
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+import java.time.LocalDate;
+
+// Streaming counterpart to JsonReader. Emits the library.json layout (two-space indent, one
+// member per line, "[\n  ]" for empty arrays) directly to the underlying Writer, so nothing is
+// built up per entity and re-indented afterwards. Compact mode drops all whitespace, for
+// one-record-per-line output such as the journal.
+public class JsonWriter implements Closeable, Flushable {
+    private static final int MAX_DEPTH = 32;
+    private static final char[] SPACES = new char[2 * MAX_DEPTH];
+    static { java.util.Arrays.fill(SPACES, ' '); }
+
+    private final Writer out;
+    private final boolean pretty;
+    private final boolean[] inArray = new boolean[MAX_DEPTH];
+    private int depth;
+    private boolean first = true;   // no member written yet in the current container
+    private boolean afterName;      // a name was written and its value is pending
+
+    public JsonWriter(Writer out) { this(out, true); }
+    public JsonWriter(Writer out, boolean pretty) { this.out = out; this.pretty = pretty; }
+
+    public JsonWriter beginObject() throws IOException { return open('{', false); }
+    public JsonWriter endObject() throws IOException { return close('}'); }
+    public JsonWriter beginArray() throws IOException { return open('[', true); }
+    public JsonWriter endArray() throws IOException { return close(']'); }
+
+    public JsonWriter name(String name) throws IOException {
+        separator();
+        out.write('"');
+        out.write(name);
+        out.write(pretty ? "\": " : "\":");
+        afterName = true;
+        return this;
+    }
+
+    public JsonWriter value(long v) throws IOException {
+        beforeValue();
+        out.write(Long.toString(v));
+        return this;
+    }
+
+    // null is written as a JSON null.
+    public JsonWriter value(String s) throws IOException {
+        beforeValue();
+        if (s == null) { out.write("null"); return this; }
+        out.write('"');
+        escape(s);
+        out.write('"');
+        return this;
+    }
+
+    public JsonWriter value(LocalDate d) throws IOException {
+        beforeValue();
+        if (d == null) { out.write("null"); return this; }
+        out.write('"');
+        int y = d.getYear();
+        if (y < 0 || y > 9999) out.write(d.toString());
+        else {
+            digits(y, 4);
+            out.write('-');
+            digits(d.getMonthValue(), 2);
+            out.write('-');
+            digits(d.getDayOfMonth(), 2);
+        }
+        out.write('"');
+        return this;
+    }
+
+    public JsonWriter newline() throws IOException {
+        out.write('\n');
+        return this;
+    }
+
+    @Override public void flush() throws IOException { out.flush(); }
+    @Override public void close() throws IOException { out.close(); }
+
+    // --- internals ---
+
+    private JsonWriter open(char c, boolean array) throws IOException {
+        beforeValue();
+        if (depth == MAX_DEPTH) throw new IllegalStateException("nesting too deep");
+        out.write(c);
+        inArray[depth++] = array;
+        first = true;
+        return this;
+    }
+
+    private JsonWriter close(char c) throws IOException {
+        if (depth == 0) throw new IllegalStateException("nothing to close");
+        depth--;
+        if (pretty) {
+            out.write('\n');
+            indent();
+        }
+        out.write(c);
+        first = false;
+        return this;
+    }
+
+    // Array elements get their own line; object values follow their name.
+    private void beforeValue() throws IOException {
+        if (afterName) { afterName = false; return; }
+        if (depth > 0 && inArray[depth - 1]) separator();
+    }
+
+    private void separator() throws IOException {
+        if (!first) out.write(',');
+        if (pretty) {
+            out.write('\n');
+            indent();
+        }
+        first = false;
+    }
+
+    private void indent() throws IOException {
+        out.write(SPACES, 0, 2 * depth);
+    }
+
+    // Backslash, quote and newline are escaped and CR is dropped, as library.json always has been.
+    private void escape(String s) throws IOException {
+        int start = 0, n = s.length();
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            String rep;
+            switch (c) {
+                case '\\': rep = "\\\\"; break;
+                case '"': rep = "\\\""; break;
+                case '\n': rep = "\\n"; break;
+                case '\r': rep = ""; break;
+                default: continue;
+            }
+            out.write(s, start, i - start);
+            out.write(rep);
+            start = i + 1;
+        }
+        out.write(s, start, n - start);
+    }
+
+    private void digits(int v, int width) throws IOException {
+        for (int div = width == 4 ? 1000 : 10; div > 0; div /= 10) out.write('0' + (v / div) % 10);
+    }
+}
@@ -0,0 +1,59 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// Log-linear histogram in the style of HdrHistogram: each power of two is split into 64 linear
+// sub-buckets, so any recorded value is known to within 1/64 (~1.6%) from 1ns up to Long.MAX_VALUE
+// in a fixed 3,776-slot table. Recording is a few atomic adds with no allocation or locking, so
+// it can sit on every operation; reads are approximate while writers are active.
+public class LatencyHistogram {
+    private static final int SUB_BITS = 7;
+    private static final int HALF = 1 << (SUB_BITS - 1);
+    private static final int SLOTS = (64 - SUB_BITS + 1) * HALF + HALF;
+
+    private final AtomicLongArray counts = new AtomicLongArray(SLOTS);
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public void record(long value) {
+        if (value < 0) value = 0;
+        counts.incrementAndGet(slot(value));
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    public long count() {
+        long n = 0;
+        for (int i = 0; i < SLOTS; i++) n += counts.get(i);
+        return n;
+    }
+    public long sum() { return sum.sum(); }
+    public long max() { return max.get(); }
+
+    // Smallest bucket bound that at least p percent of recorded values fall at or below.
+    public long valueAt(double p) {
+        long n = count();
+        if (n == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(p / 100 * n));
+        long seen = 0;
+        for (int i = 0; i < SLOTS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) return Math.min(highestIn(i), max.get());
+        }
+        return max.get();
+    }
+
+    // Values below 2^SUB_BITS get a slot each; above that, slot = shift * HALF + (value >> shift)
+    // with the shift that leaves SUB_BITS significant bits.
+    static int slot(long value) {
+        int shift = Math.max(0, 64 - Long.numberOfLeadingZeros(value) - SUB_BITS);
+        return (shift << (SUB_BITS - 1)) + (int) (value >>> shift);
+    }
+
+    static long highestIn(int slot) {
+        if (slot < 2 * HALF) return slot;
+        int shift = (slot >> (SUB_BITS - 1)) - 1;
+        long low = (long) (slot - (shift << (SUB_BITS - 1))) << shift;
+        return low + (1L << shift) - 1;
+    }
+}
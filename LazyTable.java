@@ -0,0 +1,135 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+// A read-only Table whose entries stay in the snapshot file until asked for. get() parses the
+// entry from its byte range (see SnapshotIndex) and keeps it in an LRU cache of `capacity`
+// entries, so the heap holds the ids, the offsets and the hot set rather than the catalog.
+// Pages and full listings read through the cache without filling it, so one scan doesn't
+// push the hot set out.
+public class LazyTable<T> implements Table<T> {
+    public interface Parser<T> { T read(JsonReader in) throws IOException; }
+
+    // get() calls answered from the cache and from the file, entries pushed out to make room
+    public record CacheStats(long hits, long misses, long evictions, int cached, int capacity) {}
+
+    private final FileChannel ch;
+    private final SnapshotIndex.Section index;
+    private final Parser<T> parser;
+    private final int capacity;
+    private final LongAdder hits = new LongAdder(), misses = new LongAdder(), evictions = new LongAdder();
+    private volatile Metrics.Counter hitCounter = Metrics.NOOP.counter("hits"), missCounter = Metrics.NOOP.counter("misses");
+
+    // access-ordered, so the eldest entry is the least recently used; guarded by itself
+    private final LinkedHashMap<Integer, T> cache;
+
+    public LazyTable(FileChannel ch, SnapshotIndex.Section index, Parser<T> parser, int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("capacity must be >= 1");
+        this.ch = ch;
+        this.index = index;
+        this.parser = parser;
+        this.capacity = capacity;
+        this.cache = new LinkedHashMap<>(Math.min(capacity, 1 << 16), 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<Integer, T> eldest) {
+                if (size() <= LazyTable.this.capacity) return false;
+                evictions.increment();
+                return true;
+            }
+        };
+    }
+
+    // Also counts hits and misses under <name>.hits and <name>.misses.
+    public void instrument(Metrics m, String name) {
+        hitCounter = m.counter(name + ".hits");
+        missCounter = m.counter(name + ".misses");
+    }
+
+    public CacheStats stats() {
+        int cached;
+        synchronized (cache) {
+            cached = cache.size();
+        }
+        return new CacheStats(hits.sum(), misses.sum(), evictions.sum(), cached, capacity);
+    }
+
+    // Parsing happens outside the lock, so misses on different ids proceed in parallel; if two
+    // race on one id, the first to finish is the one cached and returned to both.
+    @Override
+    public T get(int id) {
+        int i = index.find(id);
+        if (i < 0) return null;
+        T v;
+        synchronized (cache) {
+            v = cache.get(id);
+        }
+        if (v != null) {
+            hits.increment();
+            hitCounter.add(1);
+            return v;
+        }
+        misses.increment();
+        missCounter.add(1);
+        v = read(i);
+        synchronized (cache) {
+            T raced = cache.putIfAbsent(id, v);
+            return raced != null ? raced : v;
+        }
+    }
+
+    @Override
+    public boolean add(T v) {
+        throw new UnsupportedOperationException("lazily loaded tables are read-only");
+    }
+
+    @Override
+    public void ensureCapacity(int extra) { }
+
+    @Override
+    public int size() { return index.size(); }
+
+    @Override
+    public List<T> snapshot() { return range(0, index.size()); }
+
+    // Reads every entry: a copy like snapshot(), since nothing here is kept live.
+    @Override
+    public List<T> view() { return snapshot(); }
+
+    @Override
+    public List<T> page(int afterId, int limit) {
+        int from = index.find(afterId);
+        from = from >= 0 ? from + 1 : -from - 1;
+        return range(from, (int) Math.min(index.size(), (long) from + Math.max(limit, 0)));
+    }
+
+    private List<T> range(int from, int to) {
+        List<T> out = new ArrayList<>(Math.max(to - from, 0));
+        for (int i = from; i < to; i++) {
+            T v;
+            synchronized (cache) {
+                v = cache.get(index.ids()[i]);
+            }
+            out.add(v != null ? v : read(i));
+        }
+        return out;
+    }
+
+    private T read(int i) {
+        ByteBuffer b = ByteBuffer.allocate(index.lengths()[i]);
+        long at = index.starts()[i];
+        try {
+            while (b.hasRemaining()) {
+                if (ch.read(b, at + b.position()) < 0) throw new IOException("snapshot ends inside entry " + index.ids()[i]);
+            }
+            return parser.read(new JsonReader(new String(b.array(), StandardCharsets.UTF_8)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -1,253 +1,1719 @@
 import java.nio.file.*;
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.regex.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedOutputStream;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 import java.time.LocalDate;
+import java.time.YearMonth;
 
+// Safe for concurrent use. Lookups are lock-free in the common case. Issue/return on different
+// books take no common lock beyond the O(1) append into the issued table and the journal
+// write: copy counts are CAS-updated per Book, and the due calendar, per-user loans and daily
+// statistics are concurrent maps (the top-k ranking locks only when a count enters it).
+// Mutations run under the shared side of `gate`; snapshot writers take the exclusive side so a
+// snapshot never sees half of an operation.
 public class Library {
-    private List<Book> books = new ArrayList<>();
-    private List<User> users = new ArrayList<>();
-    private List<IssuedRecord> issued = new ArrayList<>();
-    private int nextBookId = 1;
-    private int nextUserId = 1;
-    private int nextIssuedId = 1;
+    private final Table<Book> books;
+    private final Table<User> users;
+    // one copy of each author name, shared by the books and by a CompactBookTable's columns
+    private final StringPool authors;
+    private final IdTable<IssuedRecord> issued = new IdTable<>(IssuedRecord::getId);
+    // the same loans by ShardedStore.monthKey of their issue date, so a sharded save reads
+    // only the dirty months; fed by insertIssued and drained by archiveReturned
+    private final Map<Integer, IdTable<IssuedRecord>> issuedByMonth = new ConcurrentHashMap<>();
+    // word-prefix search over titles and authors, fed by insertBook
+    private final TokenIndex titleIndex = new TokenIndex();
+    private final TokenIndex authorIndex = new TokenIndex();
+    // open loans by due date, fed by insertIssued and drained by returns
+    private final DueCalendar openLoans = new DueCalendar();
+    // open loans by borrower, fed and drained alongside openLoans
+    private final UserLoans userLoans = new UserLoans();
+    // most loans a user may have open at once; <= 0 for no limit
+    private volatile int maxOpenLoans = Integer.getInteger("library.maxOpenLoans", 0);
+    private final AtomicInteger nextBookId = new AtomicInteger(1);
+    private final AtomicInteger nextUserId = new AtomicInteger(1);
+    private final AtomicInteger nextIssuedId = new AtomicInteger(1);
+    // patrons waiting for books with no copy on the shelf
+    private final HoldQueue holds = new HoldQueue();
+    private final AtomicInteger nextHoldId = new AtomicInteger(1);
+    // nextHoldId as of the loaded snapshot: journaled holds below it are covered by the snapshot
+    private int holdFloor = 1;
+    private final List<HoldListener> holdListeners = new CopyOnWriteArrayList<>();
+    // issue counts, daily histograms and top-N, fed by insertIssued and the return paths;
+    // replaced whole by recomputeStats
+    private static final int STATS_TOP_K = 100;
+    private volatile CirculationStats stats = new CirculationStats(STATS_TOP_K);
+
+    private final ReentrantReadWriteLock gate = new ReentrantReadWriteLock();
+
+    // JSON snapshots at least this big load through fromJsonParallel when there are cores to
+    // spare; elements per parse task within a section
+    private static final long PARALLEL_LOAD_BYTES = 4L << 20;
+    private static final int PARALLEL_CHUNK = 8192;
+    // entries fetched per step by the stream*() cursors
+    private static final int STREAM_PAGE = 256;
+    // previous snapshot files kept as <name>.1 .. <name>.N for a load to fall back on
+    private static final int KEEP_SNAPSHOTS = Integer.getInteger("library.keepSnapshots", 3);
 
     // runtime hold for last issue due date (for friendly display)
-    private LocalDate lastIssueDue = null;
+    private volatile LocalDate lastIssueDue = null;
+
+    // write-ahead journal; null unless enableJournal() was called
+    private volatile Journal journal;
+    private Path snapshotPath;
+    private long checkpointBytes = 16L << 20;
+    private long checkpointMillis = 10 * 60 * 1000L;
+    private volatile long lastCheckpoint = System.currentTimeMillis();
+
+    // where returned loans go at checkpoint; null keeps them in the live state
+    private volatile LoanArchive archive;
+    // set once saved to or loaded from a sharded directory: where the shards changed since
+    // the last save are tracked
+    private volatile ShardedStore shards;
+
+    // sequenced changes for replicas; null unless enableChangeFeed() was called
+    private volatile ChangeFeed feed;
+    // the feed position a loaded snapshot was taken at (0 if none), where a replica resumes
+    private volatile long changeEpoch, changeSeq;
+    // replicas refuse the public mutators and only change through applyChanges()
+    private volatile boolean readOnly;
+    private static final String LAZY_READ_ONLY = "a lazily loaded library is read-only";
+    // the snapshot a lazy Library reads its books and users from; null otherwise
+    private volatile FileChannel lazyFile;
+
+    // runs checkpoints off the mutating threads; null unless enableAsyncSave() was called
+    private volatile BackgroundSaver saver;
+    // one checkpoint at a time; the gate is only held for the capture part of one
+    private final Object checkpointLock = new Object();
+
+    // One timer per public operation and persistence step, under the names MetricsRegistry
+    // reports. Handles are resolved once in setMetrics, so with NOOP a timed call costs nothing.
+    private enum Op {
+        LOAD("loadFromFile"), SAVE("saveToFile"), VERIFY("snapshot.verify"), FROM_JSON("fromJson"), FROM_BINARY("fromBinary"), FROM_SHARDS("fromShards"),
+        WRITE_JSON("writeJson"), WRITE_BINARY("writeBinary"), REPLAY("journal.replay"),
+        CHECKPOINT("checkpoint"), CHECKPOINT_FSYNC("checkpoint.fsync"), CHECKPOINT_RENAME("checkpoint.rename"),
+        CHECKPOINT_TRUNCATE("checkpoint.truncateJournal"), ARCHIVE("archiveReturned"), LOAN_HISTORY("getLoanHistory"),
+        ADD_BOOK("addBook"), ADD_USER("addUser"), ISSUE("issueBook"), RETURN("returnBook"),
+        ISSUE_BOOKS("issueBooks"), RETURN_BOOKS("returnBooks"),
+        ADD_BOOKS("addBooks"), ADD_USERS("addUsers"), IMPORT_LOANS("importLoans"),
+        GET_BOOKS("getBooks"), GET_USERS("getUsers"), GET_ISSUED("getIssuedRecords"),
+        PAGE_BOOKS("pageBooks"), PAGE_USERS("pageUsers"), PAGE_ISSUED("pageIssued"),
+        FIND_BOOK("findBookById"), FIND_USER("findUserById"), FIND_ISSUED("findIssuedById"),
+        SEARCH_TITLE("searchByTitle"), SEARCH_AUTHOR("searchByAuthor"),
+        OVERDUE("getOverdueRecords"), DUE_WITHIN("getDueWithin"), LOANS_FOR_USER("getLoansForUser"),
+        PLACE_HOLD("placeHold"), CANCEL_HOLD("cancelHold"), RECOMPUTE_STATS("recomputeStats"), OPEN_LAZY("openLazy");
+
+        final String metric;
+        Op(String metric) { this.metric = metric; }
+    }
+
+    private static volatile Metrics defaultMetrics = Metrics.NOOP;
+    private volatile Metrics metrics;
+    private volatile Metrics.Timer[] timers;
+    private volatile Metrics.Counter bytesWritten, recordsParsed, errors;
+
+    // -Dlibrary.compactCatalog=true keeps books in a CompactBookTable for every Library created
+    // without saying otherwise, loaded ones included.
+    public Library() { this(Boolean.getBoolean("library.compactCatalog")); }
+
+    // compactCatalog stores books as rows in primitive columns rather than one object each:
+    // much less memory per title, at the cost of a small view object per lookup.
+    public Library(boolean compactCatalog) {
+        this(compactCatalog, new StringPool());
+    }
+
+    private Library(boolean compactCatalog, StringPool authors) {
+        this(compactCatalog ? new CompactBookTable(authors) : new IdTable<>(Book::getId), new IdTable<>(User::getId), authors);
+    }
+
+    private Library(Table<Book> books, Table<User> users, StringPool authors) {
+        this.books = books;
+        this.users = users;
+        this.authors = authors;
+        useMetrics(defaultMetrics);
+    }
+
+    // --- metrics ---
+
+    // Metrics for every Library created from now on, loaded ones included (so load time and
+    // records parsed are seen too). NOOP by default.
+    public static void setDefaultMetrics(Metrics m) { defaultMetrics = m == null ? Metrics.NOOP : m; }
+
+    public void setMetrics(Metrics m) { useMetrics(m); }
+
+    // setMetrics for the constructor too, which can't call an overridable method
+    private void useMetrics(Metrics m) {
+        Metrics.Timer[] t = new Metrics.Timer[Op.values().length];
+        for (Op op : Op.values()) t[op.ordinal()] = m.timer(op.metric);
+        timers = t;
+        bytesWritten = m.counter("bytesWritten");
+        recordsParsed = m.counter("recordsParsed");
+        errors = m.counter("errors");
+        metrics = m;
+        Journal j = journal;
+        if (j != null) j.instrument(m);
+        if (books instanceof LazyTable<Book> lb) lb.instrument(m, "bookCache");
+        if (users instanceof LazyTable<User> lu) lu.instrument(m, "userCache");
+    }
+
+    public Metrics getMetrics() { return metrics; }
 
+    private long start(Op op) { return timers[op.ordinal()].start(); }
+    private void stop(Op op, long start) { timers[op.ordinal()].stop(start); }
+
+    private <T> T timed(Op op, Supplier<T> body) {
+        long t = start(op);
+        T result = body.get();
+        stop(op, t);
+        return result;
+    }
+
+    // Reports a failure the way the console always has, and counts it.
+    private void fail(String what, Exception e) {
+        errors.add(1);
+        System.out.println(what + ": " + e.getMessage());
+    }
+
+    // Loads the snapshot (a sharded directory, JSON, or binary if the file starts with the
+    // binary magic) and replays any journal left next to it. A snapshot file whose checksum
+    // footer doesn't match, or that fails to parse, is passed over for the newest previous
+    // one that loads (see SnapshotFiles); the journal is replayed on top of whichever did.
     public static Library loadFromFile(String path) {
         Path p = Paths.get(path);
-        if (!Files.exists(p)) {
-            return new Library();
+        Library lib = new Library();
+        long t = lib.start(Op.LOAD);
+        if (ShardedStore.isShardedPath(p)) {
+            if (Files.exists(p)) {
+                try {
+                    lib = fromShards(p);
+                } catch (IOException e) {
+                    lib.fail("Failed to read data file", e);
+                    return new Library();
+                }
+            }
+        } else {
+            boolean tried = false, loaded = false;
+            for (int k = 0; k <= KEEP_SNAPSHOTS && !loaded; k++) {
+                Path c = k == 0 ? p : SnapshotFiles.previous(p, k);
+                if (!Files.exists(c)) continue;
+                try {
+                    lib = readSnapshot(c, lib);
+                    loaded = true;
+                    if (k > 0) System.out.println("Loaded the older snapshot " + c + "; changes saved after it may be missing.");
+                } catch (IOException e) {
+                    lib.fail("Skipping damaged snapshot " + c, e);
+                }
+                tried = true;
+            }
+            if (tried && !loaded) {
+                lib.fail("Failed to read data file", new IOException("no snapshot of " + p + " is intact"));
+                return new Library();
+            }
         }
+        Path j = Journal.pathFor(p);
+        lib.holdFloor = lib.nextHoldId.get();
+        if (Files.exists(j)) lib.replayJournal(j);
+        lib.stop(Op.LOAD, t);
+        return lib;
+    }
+
+    // Paths ending in .bin get the binary format, .shards (or a directory with a shard manifest)
+    // the sharded layout, anything else JSON. Saving to the directory this Library was loaded
+    // from or last saved to rewrites only the shards changed since. Files are replaced
+    // atomically, as by checkpoint(), keeping the previous KEEP_SNAPSHOTS.
+    public void saveToFile(String path) {
+        Path p = Paths.get(path);
+        long t = start(Op.SAVE);
         try {
-            String text = Files.readString(p);
-            return fromJson(text);
+            synchronized (checkpointLock) {
+                if (ShardedStore.isShardedPath(p)) bytesWritten.add(writeShards(captureShards(storeFor(p))));
+                else bytesWritten.add(writeSnapshotFile(p, capture()));
+            }
+            stop(Op.SAVE, t);
         } catch (IOException e) {
-            System.out.println("Failed to read data file: " + e.getMessage());
-            return new Library();
+            fail("Failed to save", e);
         }
     }
 
-    public void saveToFile(String path) {
+    // --- journal ---
+
+    // From now on every mutation is appended to <path>.journal instead of rewriting the
+    // snapshot; the snapshot itself is only rewritten by checkpoint().
+    public void enableJournal(String path, Journal.FsyncPolicy policy) {
+        if (isLazy()) throw new UnsupportedOperationException(LAZY_READ_ONLY);
+        snapshotPath = Paths.get(path);
         try {
-            Files.writeString(Paths.get(path), toJson());
+            Journal j = new Journal(Journal.pathFor(snapshotPath), policy);
+            j.instrument(metrics);
+            journal = j;
         } catch (IOException e) {
-            System.out.println("Failed to save: " + e.getMessage());
+            fail("Failed to open journal", e);
         }
     }
 
+    // Checkpoint once the journal grows past maxBytes or maxMillis have passed since the
+    // last one; a value <= 0 disables that trigger.
+    public void setCheckpointPolicy(long maxBytes, long maxMillis) {
+        checkpointBytes = maxBytes;
+        checkpointMillis = maxMillis;
+    }
+
+    public void checkpoint() { checkpoint(false); }
+
+    // Returned loans will be moved into month segments under dir at each checkpoint, so the
+    // live state and the snapshot only grow with open loans.
+    // Statistics are recomputed so they count the loans already archived there.
+    public void enableArchive(String dir) {
+        archive = new LoanArchive(Paths.get(dir));
+        recomputeStats();
+    }
+
+    // Moves every returned loan into the archive now. Segments are fsynced before the loans
+    // leave memory; the caller's next snapshot is what makes the move permanent.
+    public void archiveReturned() {
+        LoanArchive a = archive;
+        if (a == null) return;
+        gate.writeLock().lock();
+        long t = start(Op.ARCHIVE);
+        try {
+            List<IssuedRecord> done = new ArrayList<>();
+            for (IssuedRecord r : issued.view()) if (r.getReturnDate() != null) done.add(r);
+            if (done.isEmpty()) return;
+            a.append(done);
+            issued.removeIf(r -> r.getReturnDate() != null);
+            Set<Integer> months = new HashSet<>();
+            for (IssuedRecord r : done) {
+                months.add(ShardedStore.monthKey(r.getIssueDate()));
+                dirtyLoan(r);
+            }
+            for (int k : months) {
+                IdTable<IssuedRecord> m = issuedByMonth.get(k);
+                m.removeIf(r -> r.getReturnDate() != null);
+                if (m.size() == 0) issuedByMonth.remove(k);
+            }
+        } catch (IOException e) {
+            fail("Failed to archive returned loans", e);
+        } finally {
+            stop(Op.ARCHIVE, t);
+            gate.writeLock().unlock();
+        }
+    }
+
+    // Loans returned between the two months (inclusive): archived ones read from disk on
+    // demand, then any returned since the last archive run.
+    public List<IssuedRecord> getLoanHistory(YearMonth from, YearMonth to) {
+        long t = start(Op.LOAN_HISTORY);
+        List<IssuedRecord> out = new ArrayList<>();
+        Set<Integer> seen = new HashSet<>();
+        LoanArchive a = archive;
+        if (a != null) {
+            try {
+                for (IssuedRecord r : a.read(from, to)) if (seen.add(r.getId())) out.add(r);
+            } catch (IOException e) {
+                fail("Failed to read loan archive", e);
+            }
+        }
+        for (IssuedRecord r : issued.snapshot()) {
+            LocalDate ret = r.getReturnDate();
+            if (ret == null) continue;
+            YearMonth m = YearMonth.from(ret);
+            if (!m.isBefore(from) && !m.isAfter(to) && seen.add(r.getId())) out.add(r);
+        }
+        stop(Op.LOAN_HISTORY, t);
+        return out;
+    }
+
+    // Writes a full snapshot next to the old one, fsyncs it, renames it into place and only
+    // then drops the journal prefix it covers, so a crash at any point leaves a replayable
+    // state. The gate is held exclusively just long enough to archive and capture(); records
+    // journaled while the file is being written stay in the journal tail.
+    private void checkpoint(boolean onlyIfDue) {
+        try {
+            tryCheckpoint(onlyIfDue);
+        } catch (IOException e) {
+            fail("Checkpoint failed", e);
+        }
+    }
+
+    private void tryCheckpoint(boolean onlyIfDue) throws IOException {
+        if (snapshotPath == null) return;
+        synchronized (checkpointLock) {
+            Snapshot snap = null;
+            ShardCapture changed = null;
+            ShardedStore store = ShardedStore.isShardedPath(snapshotPath) ? storeFor(snapshotPath) : null;
+            long t;
+            gate.writeLock().lock();
+            try {
+                if (onlyIfDue && !checkpointDue()) return;
+                t = start(Op.CHECKPOINT);
+                archiveReturned();
+                if (store != null) changed = captureShards(store);
+                else snap = capture();
+            } finally {
+                gate.writeLock().unlock();
+            }
+            if (changed != null) {
+                bytesWritten.add(writeShards(changed));
+                dropJournalPrefix(changed.journalMark());
+            } else {
+                writeCheckpoint(snap);
+            }
+            lastCheckpoint = System.currentTimeMillis();
+            stop(Op.CHECKPOINT, t);
+        }
+    }
+
+    private void writeCheckpoint(Snapshot snap) throws IOException {
+        bytesWritten.add(writeSnapshotFile(snapshotPath, snap));
+        dropJournalPrefix(snap.journalMark());
+    }
+
+    // Writes the snapshot and its checksum footer to a temp file next to path, fsyncs it, moves
+    // the current file into the previous-snapshot rotation and renames the new one over it; a
+    // crash at any point leaves path whole, old or new. Returns the bytes written.
+    private long writeSnapshotFile(Path path, Snapshot snap) throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        long size;
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            CRC32C crc = new CRC32C();
+            OutputStream out = new CheckedOutputStream(Channels.newOutputStream(ch), crc);
+            if (BinarySnapshot.isBinaryPath(path)) {
+                snap.writeBinary(out);
+            } else {
+                Writer w = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+                snap.writeJson(w);
+                w.flush();
+            }
+            SnapshotFiles.writeFooter(ch, crc);
+            long f = start(Op.CHECKPOINT_FSYNC);
+            ch.force(true);
+            stop(Op.CHECKPOINT_FSYNC, f);
+            size = ch.size();
+        }
+        long m = start(Op.CHECKPOINT_RENAME);
+        SnapshotFiles.rotate(path, KEEP_SNAPSHOTS);
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        stop(Op.CHECKPOINT_RENAME, m);
+        return size;
+    }
+
+    // One snapshot file, refused without parsing if its footer shows it damaged. A file with
+    // no footer can still be damaged in ways the parsers only notice as a bad date, number or
+    // length; those come out as IOException too, so the caller falls back on every kind.
+    private static Library readSnapshot(Path c, Library timing) throws IOException {
+        long v = timing.start(Op.VERIFY);
+        SnapshotFiles.Check check = SnapshotFiles.verify(c);
+        timing.stop(Op.VERIFY, v);
+        if (check.status() == SnapshotFiles.Status.DAMAGED) throw new IOException(check.problem());
+        try {
+            if (BinarySnapshot.isBinaryFile(c)) return fromBinary(c);
+            if (Files.size(c) >= PARALLEL_LOAD_BYTES && ForkJoinPool.getCommonPoolParallelism() > 1) {
+                return fromJsonParallel(c, ForkJoinPool.commonPool());
+            }
+            try (Reader in = Files.newBufferedReader(c)) {
+                return fromJson(in);
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("unreadable (" + e + ")", e);
+        }
+    }
+
+    private void dropJournalPrefix(long mark) throws IOException {
+        Journal j = journal;
+        if (j != null) {
+            long d = start(Op.CHECKPOINT_TRUNCATE);
+            j.dropPrefix(mark);
+            stop(Op.CHECKPOINT_TRUNCATE, d);
+        }
+    }
+
+    // --- sharded snapshot (see ShardedStore) ---
+
+    // The attached store if it is the one at dir; otherwise dir's store, set to be written in
+    // full, since its shards say nothing about this Library.
+    private ShardedStore storeFor(Path dir) throws IOException {
+        ShardedStore s = shards;
+        if (s != null && s.getDirectory().equals(dir)) return s;
+        s = ShardedStore.open(dir);
+        s.markAll();
+        return s;
+    }
+
+    // Records of the shards changed since the last save to the store; journalMark as in Snapshot.
+    private record ShardCapture(ShardedStore store, ShardedStore.Dirty dirty, ShardedStore.Header header,
+                                Map<Integer, List<Book>> books, Map<Integer, List<User>> users,
+                                Map<Integer, List<IssuedRecord>> issued, List<Hold> holds, long journalMark) {}
+
+    // capture() for just the dirty shards, attaching the store so later changes are tracked
+    // against it. Book and user shards are id ranges and loans are indexed by month, so only
+    // the dirty shards' records are visited. Copies are made as in capture().
+    private ShardCapture captureShards(ShardedStore s) {
+        gate.writeLock().lock();
+        try {
+            shards = s;
+            ShardedStore.Dirty d = s.takeDirty();
+            Map<Integer, List<Book>> bs = new HashMap<>();
+            Map<Integer, List<User>> us = new HashMap<>();
+            if (d.all()) {
+                for (Book b : books.view()) bs.computeIfAbsent(s.bookShard(b.getId()), k -> new ArrayList<>()).add(copyOf(b));
+                for (User u : users.view()) us.computeIfAbsent(s.userShard(u.getId()), k -> new ArrayList<>()).add(u);
+            } else {
+                for (int k : d.books()) {
+                    List<Book> list = new ArrayList<>();
+                    for (int id = s.firstId(k), last = Math.min(s.lastId(k), nextBookId.get() - 1); id <= last; id++) {
+                        Book b = books.get(id);
+                        if (b != null) list.add(copyOf(b));
+                    }
+                    bs.put(k, list);
+                }
+                for (int k : d.users()) {
+                    List<User> list = new ArrayList<>();
+                    for (int id = s.firstId(k), last = Math.min(s.lastId(k), nextUserId.get() - 1); id <= last; id++) {
+                        User u = users.get(id);
+                        if (u != null) list.add(u);
+                    }
+                    us.put(k, list);
+                }
+            }
+            Map<Integer, List<IssuedRecord>> rs = new HashMap<>();
+            if (d.all()) {
+                for (IssuedRecord r : issued.view()) rs.computeIfAbsent(ShardedStore.monthKey(r.getIssueDate()), k -> new ArrayList<>()).add(copyOf(r));
+            } else {
+                for (int k : d.months()) {
+                    List<IssuedRecord> list = new ArrayList<>();
+                    IdTable<IssuedRecord> m = issuedByMonth.get(k);
+                    if (m != null) for (IssuedRecord r : m.view()) list.add(copyOf(r));
+                    rs.put(k, list);
+                }
+            }
+            Journal j = journal;
+            ChangeFeed f = feed;
+            ShardedStore.Header h = new ShardedStore.Header(nextBookId.get(), nextUserId.get(), nextIssuedId.get(), nextHoldId.get(),
+                    f != null ? f.epoch() : changeEpoch, f != null ? f.lastSeq() : changeSeq);
+            return new ShardCapture(s, d, h, bs, us, rs, d.holds() ? holds.all() : null, j == null ? 0 : j.size());
+        } finally {
+            gate.writeLock().unlock();
+        }
+    }
+
+    // Returns the bytes written; on failure the shards stay dirty for the next save.
+    private long writeShards(ShardCapture c) throws IOException {
+        try {
+            return c.store().write(c.dirty(), c.header(), c.books(), c.users(), c.issued(), c.holds());
+        } catch (IOException | RuntimeException e) {
+            c.store().putBack(c.dirty());
+            throw e;
+        }
+    }
+
+    // The changes of a loan (copies out or back, a return date) go to its book's shard and
+    // its month's shard at the next sharded save; hold changes to the holds shard.
+    private void dirtyLoan(IssuedRecord r) {
+        ShardedStore s = shards;
+        if (s != null) s.markLoan(r);
+    }
+
+    private void dirtyHolds() {
+        ShardedStore s = shards;
+        if (s != null) s.markHolds();
+    }
+
+    private boolean checkpointDue() {
+        Journal j = journal;
+        if (j == null) return false;
+        return (checkpointBytes > 0 && j.size() >= checkpointBytes)
+                || (checkpointMillis > 0 && System.currentTimeMillis() - lastCheckpoint >= checkpointMillis);
+    }
+
+    // --- change feed ---
+
+    // From now on every change also goes to a ChangeFeed (see there), keeping the newest
+    // ringCapacity in memory and spilling all of them to spillPath.
+    public void enableChangeFeed(String spillPath, int ringCapacity) {
+        try {
+            feed = new ChangeFeed(Paths.get(spillPath), ringCapacity);
+        } catch (IOException e) {
+            fail("Failed to open change feed", e);
+        }
+    }
+
+    public ChangeFeed getChangeFeed() { return feed; }
+
+    public void closeChangeFeed() {
+        ChangeFeed f = feed;
+        if (f == null) return;
+        feed = null;
+        try {
+            f.close();
+        } catch (IOException e) {
+            fail("Failed to close change feed", e);
+        }
+    }
+
+    // For a replica: the feed epoch and sequence number the loaded snapshot was taken at.
+    public long getChangeEpoch() { return changeEpoch; }
+    public long getChangeSeq() { return changeSeq; }
+
+    // Turns this Library into a replica: the public mutators throw, and applyChange() is the
+    // only way in. Queries and snapshots work as usual.
+    public void setReadOnly() { readOnly = true; }
+
+    // Applies one feed line under the shared side of the gate, like a mutation, so snapshots
+    // of the replica stay consistent. Returns the line's sequence number.
+    public long applyChange(String line) throws IOException {
+        if (isLazy()) throw new UnsupportedOperationException(LAZY_READ_ONLY);
+        Change c = Change.read(new JsonReader(line));
+        gate.readLock().lock();
+        try {
+            applyRecord(c);
+            changeSeq = c.seq();
+        } finally {
+            gate.readLock().unlock();
+        }
+        return c.seq();
+    }
+
+    // --- background save ---
+
+    // Mutations stop checkpointing on the caller's thread and only mark the state dirty; a
+    // background thread then writes one checkpoint per burst, `coalesceMillis` after it starts.
+    // With no journal enabled the snapshot at `path` is the only copy, so flush() before exit.
+    // A checkpoint that fails is reported and retried with backoff until one succeeds.
+    public void enableAsyncSave(String path, long coalesceMillis) {
+        if (snapshotPath == null) snapshotPath = Paths.get(path);
+        if (saver == null) saver = new BackgroundSaver("library-saver", coalesceMillis, () -> {
+            try {
+                tryCheckpoint(false);
+            } catch (IOException e) {
+                fail("Background save failed", e);
+                throw e;
+            }
+        });
+    }
+
+    // Waits until everything mutated before the call has been checkpointed; throws
+    // UncheckedIOException if the checkpoint that was to cover it failed (the saver keeps
+    // retrying, so a later flush() can still succeed).
+    public void flush() {
+        BackgroundSaver s = saver;
+        if (s == null) return;
+        try {
+            s.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Writes whatever is still pending and stops the background thread; throws
+    // UncheckedIOException if that last checkpoint failed.
+    public void closeAsyncSave() {
+        BackgroundSaver s = saver;
+        if (s == null) return;
+        saver = null;
+        try {
+            s.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public void closeJournal() {
+        Journal j = journal;
+        if (j == null) return;
+        journal = null;
+        try {
+            j.close();
+        } catch (IOException e) {
+            fail("Failed to close journal", e);
+        }
+    }
+
+    private interface JournalOp { void write(RecordLog j) throws IOException; }
+
+    // A record the journal didn't take fails the mutation with an UncheckedIOException, out
+    // of mutate to the caller; what the mutation had claimed before logging (a copy, a loan
+    // slot, a return mark) is handed back first, so nothing unjournaled is ever acknowledged.
+    // The change feed only serves replicas, so a failure there is reported and the change stands.
+    private void log(JournalOp op) {
+        Journal j = journal;
+        if (j != null) {
+            try {
+                op.write(j);
+            } catch (IOException e) {
+                fail("Failed to write journal", e);
+                throw new UncheckedIOException(e);
+            }
+        }
+        ChangeFeed f = feed;
+        if (f != null) {
+            try {
+                op.write(f);
+            } catch (IOException e) {
+                fail("Failed to write change feed", e);
+            }
+        }
+    }
+
+    // Runs a mutation under the shared side of the gate, then checkpoints if one is due (the
+    // read lock can't be upgraded, so that has to happen after it is released), or with async
+    // save on, leaves that to the background writer.
+    private <T> T mutate(Op op, Supplier<T> body) {
+        if (readOnly) throw new UnsupportedOperationException(isLazy() ? LAZY_READ_ONLY : "read-only replica");
+        long t = start(op);
+        gate.readLock().lock();
+        T result;
+        try {
+            result = body.get();
+        } finally {
+            gate.readLock().unlock();
+        }
+        stop(op, t);
+        BackgroundSaver s = saver;
+        if (s != null) s.mark();
+        else if (checkpointDue()) checkpoint(true);
+        return result;
+    }
+
+    // Applies every complete record; records already reflected in the snapshot (same id, or a
+    // return that already happened) are skipped. A line that doesn't parse (a torn final line,
+    // or a torn record an older build left mid-file) is reported and skipped, and replay goes
+    // on with the next. Concurrent writers may have journaled an issue and a return of the
+    // same book in either order, so copy counts are adjusted without clamping here.
+    private void replayJournal(Path path) {
+        long t = start(Op.REPLAY);
+        try (BufferedReader in = Files.newBufferedReader(path)) {
+            int n = 0;
+            for (String line; (line = in.readLine()) != null; ) {
+                n++;
+                if (line.isBlank()) continue;
+                Change c;
+                try {
+                    c = Change.read(new JsonReader(line));
+                } catch (IOException | RuntimeException e) {
+                    fail("Skipped unreadable journal line " + n, e);
+                    continue;
+                }
+                applyRecord(c);
+                recordsParsed.add(1);
+            }
+        } catch (IOException | RuntimeException e) {
+            fail("Journal replay stopped early", e);
+        }
+        stop(Op.REPLAY, t);
+    }
+
+    // One RecordLog record, as read back from the journal or the change feed (seq is 0 in
+    // the journal).
+    record Change(long seq, String op, Book book, User user, IssuedRecord record, Hold hold, int id, LocalDate returnDate) {
+        static Change read(JsonReader in) throws IOException {
+            long seq = 0;
+            String op = null;
+            Book b = null;
+            User u = null;
+            IssuedRecord r = null;
+            Hold h = null;
+            int id = -1;
+            LocalDate returnDate = null;
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "seq" -> seq = in.nextLong();
+                    case "op" -> op = in.nextString();
+                    case RecordLog.OP_BOOK -> b = Book.readJson(in);
+                    case RecordLog.OP_USER -> u = User.readJson(in);
+                    case "record" -> r = IssuedRecord.readJson(in);
+                    case RecordLog.OP_HOLD -> h = Hold.readJson(in);
+                    case "id" -> id = in.nextInt();
+                    case "returnDate" -> returnDate = LocalDate.parse(in.nextString());
+                    default -> in.skipValue();
+                }
+            }
+            in.endObject();
+            return new Change(seq, op, b, u, r, h, id, returnDate);
+        }
+    }
+
+    private void applyRecord(Change c) {
+        String op = c.op() == null ? "" : c.op();
+        switch (op) {
+            case RecordLog.OP_BOOK -> { if (c.book() != null) insertBook(c.book()); }
+            case RecordLog.OP_USER -> { if (c.user() != null) insertUser(c.user()); }
+            case RecordLog.OP_ISSUE -> { if (c.record() != null) replayIssue(c.record()); }
+            case RecordLog.OP_FILL -> {
+                if (c.record() == null) return;
+                if (holds.remove(c.id()) != null) dirtyHolds();
+                replayIssue(c.record());
+            }
+            // below holdFloor: the snapshot already has it, or had it and it's gone
+            case RecordLog.OP_HOLD -> { if (c.hold() != null && c.hold().getId() >= holdFloor) insertHold(c.hold()); }
+            case RecordLog.OP_UNHOLD -> { if (holds.remove(c.id()) != null) dirtyHolds(); }
+            case RecordLog.OP_RETURN -> {
+                IssuedRecord open = findIssuedById(c.id());
+                if (open != null && c.returnDate() != null && open.markReturned(c.returnDate())) {
+                    closeLoan(open);
+                    stats.loanReturned(c.returnDate());
+                    Book book = findBookById(open.getBookId());
+                    if (book != null) book.adjustAvailable(1);
+                }
+            }
+            default -> { }
+        }
+    }
+
+    private void replayIssue(IssuedRecord r) {
+        if (findIssuedById(r.getId()) != null) return;
+        Book book = findBookById(r.getBookId());
+        if (book != null && r.getReturnDate() == null) book.adjustAvailable(-1);
+        insertIssued(r);
+    }
+
     // --- domain operations ---
+    // Each record is journaled before it becomes visible, so anything that observes it (an
+    // issue of a new book, a return of a new loan) is always journaled after it. If the
+    // journal write fails, the operation throws UncheckedIOException and changes nothing.
     public Book addBook(String title, String author, int copies) {
-        Book b = new Book(nextBookId++, title, author, copies, copies);
-        books.add(b);
-        return b;
+        return mutate(Op.ADD_BOOK, () -> {
+            Book b = new Book(nextBookId.getAndIncrement(), title, author, copies, copies);
+            log(j -> j.logAddBook(b));
+            return insertBook(b);
+        });
     }
 
     public User addUser(String name, String email) {
-        User u = new User(nextUserId++, name, email);
-        users.add(u);
-        return u;
+        return mutate(Op.ADD_USER, () -> {
+            User u = new User(nextUserId.getAndIncrement(), name, email);
+            log(j -> j.logAddUser(u));
+            insertUser(u);
+            return u;
+        });
     }
 
     public boolean issueBook(int bookId, int userId, int days) {
-        Book b = findBookById(bookId);
-        User u = findUserById(userId);
-        if (b == null || u == null) return false;
-        if (b.getAvailableCopies() <= 0) return false;
-        b.decrementAvailable();
-        LocalDate issueDate = LocalDate.now();
-        LocalDate due = issueDate.plusDays(days);
-        IssuedRecord r = new IssuedRecord(nextIssuedId++, bookId, userId, issueDate, due, null);
-        issued.add(r);
-        lastIssueDue = due;
-        return true;
+        return issue(bookId, userId, days) != null;
     }
 
+    // Like issueBook, but hands back the new loan (null if it couldn't be issued).
+    public IssuedRecord issue(int bookId, int userId, int days) {
+        return mutate(Op.ISSUE, () -> {
+            Book b = findBookById(bookId);
+            User u = findUserById(userId);
+            if (b == null || u == null) return null;
+            if (!userLoans.reserve(userId, 1, maxOpenLoans)) return null; // at the borrowing limit
+            if (!b.decrementAvailable()) { // no copies left
+                userLoans.release(userId, 1);
+                return null;
+            }
+            LocalDate issueDate = LocalDate.now();
+            LocalDate due = issueDate.plusDays(days);
+            IssuedRecord r = new IssuedRecord(nextIssuedId.getAndIncrement(), bookId, userId, issueDate, due, null);
+            try {
+                log(j -> j.logIssue(r));
+            } catch (UncheckedIOException e) {
+                b.incrementAvailable();
+                userLoans.release(userId, 1);
+                throw e;
+            }
+            insertIssued(r, true);
+            lastIssueDue = due;
+            return r;
+        });
+    }
+
+    // The copy goes to the first patron holding the book, if any, otherwise back on the shelf.
+    // If the hand-off can't be journaled this throws, but the return stands and the copy is
+    // shelved.
     public boolean returnBook(int issuedId) {
-        for (IssuedRecord r : issued) {
-            if (r.getId() == issuedId) {
-                if (r.getReturnDate() != null) return false; // already returned
-                r.setReturnDate(LocalDate.now());
-                Book b = findBookById(r.getBookId());
-                if (b != null) b.incrementAvailable();
+        List<Filled> filled = new ArrayList<>(1);
+        boolean ok = mutate(Op.RETURN, () -> {
+            IssuedRecord r = findIssuedById(issuedId);
+            if (r == null) return false;
+            LocalDate today = LocalDate.now();
+            if (!r.markReturned(today)) return false; // already returned
+            try {
+                log(j -> j.logReturn(issuedId, today));
+            } catch (UncheckedIOException e) {
+                r.setReturnDate(null);
+                throw e;
+            }
+            closeLoan(r);
+            stats.loanReturned(today);
+            Book b = findBookById(r.getBookId());
+            if (b != null) handOff(b, filled);
+            return true;
+        });
+        notifyFilled(filled);
+        return ok;
+    }
+
+    // --- baskets ---
+    // Several items for one patron in one step: every id is resolved up front, and either all
+    // of them go through or none do. Copies and return marks are taken with the same CAS as the
+    // single-item calls and handed back if a later item fails, so a concurrent reader may see
+    // a copy briefly taken, but the journal and every snapshot see the basket whole or not at
+    // all. The basket is journaled in one write.
+
+    // The new loans in basket order, or null if the user or any book is unknown or short of
+    // copies (a book listed twice needs two).
+    public List<IssuedRecord> issueBooks(int userId, int[] bookIds, int days) {
+        return mutate(Op.ISSUE_BOOKS, () -> {
+            if (findUserById(userId) == null || bookIds.length == 0) return null;
+            Book[] basket = new Book[bookIds.length];
+            for (int i = 0; i < bookIds.length; i++) {
+                basket[i] = findBookById(bookIds[i]);
+                if (basket[i] == null) return null;
+            }
+            if (!userLoans.reserve(userId, basket.length, maxOpenLoans)) return null;
+            for (int i = 0; i < basket.length; i++) {
+                if (basket[i].decrementAvailable()) continue;
+                for (int k = 0; k < i; k++) basket[k].incrementAvailable();
+                userLoans.release(userId, basket.length);
+                return null;
+            }
+            LocalDate issueDate = LocalDate.now();
+            LocalDate due = issueDate.plusDays(days);
+            int first = nextIssuedId.getAndAdd(basket.length);
+            List<IssuedRecord> out = new ArrayList<>(basket.length);
+            for (int i = 0; i < basket.length; i++) out.add(new IssuedRecord(first + i, basket[i].getId(), userId, issueDate, due, null));
+            try {
+                log(j -> j.logIssues(out));
+            } catch (UncheckedIOException e) {
+                for (Book b : basket) b.incrementAvailable();
+                userLoans.release(userId, basket.length);
+                throw e;
+            }
+            for (IssuedRecord r : out) insertIssued(r, true);
+            lastIssueDue = due;
+            return out;
+        });
+    }
+
+    // False (and nothing returned) if any loan is unknown, listed twice or already returned.
+    public boolean returnBooks(int[] issuedIds) {
+        List<Filled> filled = new ArrayList<>();
+        try {
+            return mutate(Op.RETURN_BOOKS, () -> {
+                if (issuedIds.length == 0) return false;
+                List<IssuedRecord> basket = new ArrayList<>(issuedIds.length);
+                for (int id : issuedIds) {
+                    IssuedRecord r = findIssuedById(id);
+                    if (r == null) return false;
+                    basket.add(r);
+                }
+                LocalDate today = LocalDate.now();
+                for (int i = 0; i < basket.size(); i++) {
+                    if (basket.get(i).markReturned(today)) continue;
+                    for (int k = 0; k < i; k++) basket.get(k).setReturnDate(null);
+                    return false;
+                }
+                try {
+                    log(j -> j.logReturns(basket, today));
+                } catch (UncheckedIOException e) {
+                    for (IssuedRecord r : basket) r.setReturnDate(null);
+                    throw e;
+                }
+                for (IssuedRecord r : basket) {
+                    closeLoan(r);
+                    stats.loanReturned(today);
+                }
+                // every copy is handed off or shelved even if one hand-off fails; the first failure is rethrown
+                UncheckedIOException failed = null;
+                for (IssuedRecord r : basket) {
+                    Book b = findBookById(r.getBookId());
+                    if (b == null) continue;
+                    try {
+                        handOff(b, filled);
+                    } catch (UncheckedIOException e) {
+                        if (failed == null) failed = e;
+                    }
+                }
+                if (failed != null) throw failed;
                 return true;
+            });
+        } finally {
+            notifyFilled(filled); // holds filled before a failed hand-off still hear of it
+        }
+    }
+
+    // --- holds ---
+    // A patron can wait for a book that has no copy on the shelf. Each returned copy goes to
+    // the first one waiting as a new loan, without ever reaching the shelf; holders hear about
+    // it through a HoldListener instead of polling. Copy counts don't move on a hand-off.
+
+    private record Filled(Hold hold, IssuedRecord loan) {}
+
+    // The new hold, or null if the book or user is unknown, a copy is available (issue it
+    // instead), the user already waits for the book or is at the borrowing limit.
+    public Hold placeHold(int bookId, int userId, int days) {
+        return mutate(Op.PLACE_HOLD, () -> {
+            Book b = findBookById(bookId);
+            if (b == null || findUserById(userId) == null) return null;
+            int max = maxOpenLoans;
+            if (max > 0 && userLoans.count(userId) >= max) return null;
+            // journaled inside the queue lock, so a hand-off of this hold always comes after it
+            return holds.addIf(bookId, userId, () -> b.getAvailableCopies() == 0, () -> {
+                Hold h = new Hold(nextHoldId.getAndIncrement(), bookId, userId, LocalDate.now(), days);
+                log(j -> j.logHold(h));
+                dirtyHolds();
+                return h;
+            });
+        });
+    }
+
+    public boolean cancelHold(int holdId) {
+        return mutate(Op.CANCEL_HOLD, () -> {
+            if (holds.remove(holdId, h -> log(j -> j.logUnhold(holdId))) == null) return false;
+            dirtyHolds();
+            return true;
+        });
+    }
+
+    // In queue order.
+    public List<Hold> getHolds(int bookId) { return holds.forBook(bookId); }
+    public List<Hold> getHoldsForUser(int userId) { return holds.forUser(userId); }
+    public Hold findHoldById(int holdId) { return holds.get(holdId); }
+
+    public void addHoldListener(HoldListener l) { holdListeners.add(l); }
+    public void removeHoldListener(HoldListener l) { holdListeners.remove(l); }
+
+    // Called with a copy just given back: issues it to the next holder, or shelves it. Both
+    // happen under the book's queue lock, which placeHold also takes, so a hold can't be
+    // queued while a copy slips onto the shelf. The holder was checked against the borrowing
+    // limit when the hold was placed, so it isn't checked again here.
+    // The fill is journaled before the hold leaves its queue; if that fails the hold keeps
+    // its place and the copy goes on the shelf, as the journal (a return, no fill) says.
+    private void handOff(Book b, List<Filled> filled) {
+        IssuedRecord[] loan = new IssuedRecord[1];
+        Hold h;
+        try {
+            h = holds.pollOr(b.getId(), b::incrementAvailable, next -> {
+                LocalDate issueDate = LocalDate.now();
+                loan[0] = new IssuedRecord(nextIssuedId.getAndIncrement(), b.getId(), next.getUserId(),
+                        issueDate, issueDate.plusDays(next.getDays()), null);
+                log(j -> j.logFill(next.getId(), loan[0]));
+            });
+        } catch (UncheckedIOException e) {
+            b.incrementAvailable();
+            throw e;
+        }
+        if (h == null) return;
+        dirtyHolds();
+        userLoans.reserve(h.getUserId(), 1, 0);
+        insertIssued(loan[0], true);
+        filled.add(new Filled(h, loan[0]));
+    }
+
+    // Outside the gate, so a slow listener holds up only the returning thread.
+    private void notifyFilled(List<Filled> filled) {
+        for (Filled f : filled) {
+            for (HoldListener l : holdListeners) {
+                try {
+                    l.holdFilled(f.hold(), f.loan());
+                } catch (RuntimeException e) {
+                    fail("Hold listener failed", e);
+                }
             }
         }
-        return false;
     }
 
-    public List<Book> getBooks() { return Collections.unmodifiableList(books); }
-    public List<User> getUsers() { return Collections.unmodifiableList(users); }
-    public List<IssuedRecord> getIssuedRecords() { return Collections.unmodifiableList(issued); }
+    // --- bulk import ---
+    // A batch is validated as a whole (in parallel, before anything changes) and rejected with
+    // an IllegalArgumentException naming the bad rows; otherwise it takes one contiguous id
+    // range, pre-sizes the tables and goes to the journal as a single write.
+
+    public record NewBook(String title, String author, int copies) {
+        String problem() {
+            if (title == null || title.isBlank()) return "missing title";
+            return copies < 1 ? "copies must be >= 1" : null;
+        }
+    }
+
+    public record NewUser(String name, String email) {
+        String problem() { return name == null || name.isBlank() ? "missing name" : null; }
+    }
 
+    // A loan carried over from another system; returnDate is null while it is still out.
+    public record NewLoan(int bookId, int userId, LocalDate issueDate, LocalDate dueDate, LocalDate returnDate) {}
+
+    public List<Book> addBooks(Stream<NewBook> drafts) {
+        List<NewBook> rows = drafts.toList();
+        rejectInvalid(rows.size(), i -> rows.get(i).problem());
+        return mutate(Op.ADD_BOOKS, () -> {
+            int first = nextBookId.getAndAdd(rows.size());
+            List<Book> out = new ArrayList<>(rows.size());
+            for (int i = 0; i < rows.size(); i++) {
+                NewBook d = rows.get(i);
+                out.add(new Book(first + i, d.title(), d.author(), d.copies(), d.copies()));
+            }
+            log(j -> j.logAddBooks(out));
+            books.ensureCapacity(out.size());
+            for (int i = 0; i < out.size(); i++) out.set(i, insertBook(out.get(i)));
+            return out;
+        });
+    }
+
+    public List<User> addUsers(Stream<NewUser> drafts) {
+        List<NewUser> rows = drafts.toList();
+        rejectInvalid(rows.size(), i -> rows.get(i).problem());
+        return mutate(Op.ADD_USERS, () -> {
+            int first = nextUserId.getAndAdd(rows.size());
+            List<User> out = new ArrayList<>(rows.size());
+            for (int i = 0; i < rows.size(); i++) out.add(new User(first + i, rows.get(i).name(), rows.get(i).email()));
+            log(j -> j.logAddUsers(out));
+            users.ensureCapacity(out.size());
+            for (User u : out) insertUser(u);
+            return out;
+        });
+    }
+
+    // Open loans take a copy of their book each; if any book runs out (here or because of a
+    // concurrent issue) the copies already taken are put back and nothing is imported.
+    public List<IssuedRecord> importLoans(Stream<NewLoan> drafts) {
+        List<NewLoan> rows = drafts.toList();
+        rejectInvalid(rows.size(), i -> loanProblem(rows.get(i)));
+        return mutate(Op.IMPORT_LOANS, () -> {
+            List<Book> taken = new ArrayList<>();
+            for (NewLoan d : rows) {
+                if (d.returnDate() != null) continue;
+                Book b = findBookById(d.bookId());
+                if (!b.decrementAvailable()) {
+                    for (Book t : taken) t.incrementAvailable();
+                    throw new IllegalArgumentException("book " + b.getId() + " has fewer copies than open loans");
+                }
+                taken.add(b);
+            }
+            int first = nextIssuedId.getAndAdd(rows.size());
+            List<IssuedRecord> out = new ArrayList<>(rows.size());
+            for (int i = 0; i < rows.size(); i++) {
+                NewLoan d = rows.get(i);
+                out.add(new IssuedRecord(first + i, d.bookId(), d.userId(), d.issueDate(), d.dueDate(), d.returnDate()));
+            }
+            try {
+                log(j -> j.logIssues(out));
+            } catch (UncheckedIOException e) {
+                for (Book t : taken) t.incrementAvailable();
+                throw e;
+            }
+            issued.ensureCapacity(out.size());
+            for (IssuedRecord r : out) insertIssued(r);
+            return out;
+        });
+    }
+
+    private String loanProblem(NewLoan d) {
+        if (findBookById(d.bookId()) == null) return "no book " + d.bookId();
+        if (findUserById(d.userId()) == null) return "no user " + d.userId();
+        if (d.issueDate() == null || d.dueDate() == null) return "missing issue or due date";
+        if (d.dueDate().isBefore(d.issueDate())) return "due before issued";
+        if (d.returnDate() != null && d.returnDate().isBefore(d.issueDate())) return "returned before issued";
+        return null;
+    }
+
+    // Checks every row on the common pool; reports the first few problems in row order.
+    private static void rejectInvalid(int rows, IntFunction<String> problem) {
+        List<String> bad = IntStream.range(0, rows).parallel()
+                .mapToObj(i -> {
+                    String p = problem.apply(i);
+                    return p == null ? null : "row " + (i + 1) + ": " + p;
+                })
+                .filter(Objects::nonNull)
+                .toList();
+        if (bad.isEmpty()) return;
+        String shown = String.join("; ", bad.subList(0, Math.min(5, bad.size())));
+        throw new IllegalArgumentException(bad.size() > 5 ? shown + " (and " + (bad.size() - 5) + " more)" : shown);
+    }
+
+    // single place where an entity enters the in-memory state, for new and replayed records alike
+    // Returns the book as stored: an IdTable gets a copy around the pooled author when the
+    // parsed one is a duplicate (a CompactBookTable pools its column itself).
+    private Book insertBook(Book b) {
+        if (books instanceof IdTable) {
+            String author = authors.canonical(b.getAuthor());
+            if (author != b.getAuthor()) b = new Book(b.getId(), b.getTitle(), author, b.getAvailableCopies(), b.getTotalCopies());
+        }
+        if (!books.add(b)) return b;
+        nextBookId.accumulateAndGet(b.getId() + 1, Math::max);
+        ShardedStore s = shards;
+        if (s != null) s.markBook(b.getId());
+        titleIndex.add(b.getId(), b.getTitle());
+        authorIndex.add(b.getId(), b.getAuthor());
+        return b;
+    }
+
+    private void insertUser(User u) {
+        if (!users.add(u)) return;
+        nextUserId.accumulateAndGet(u.getId() + 1, Math::max);
+        ShardedStore s = shards;
+        if (s != null) s.markUser(u.getId());
+    }
+
+    private void insertHold(Hold h) {
+        if (!holds.add(h)) return;
+        nextHoldId.accumulateAndGet(h.getId() + 1, Math::max);
+        dirtyHolds();
+    }
+
+    // The loan goes on the calendar before it becomes visible, so a return racing with it
+    // can't remove it first and leave a stale entry behind.
+    private void insertIssued(IssuedRecord r) { insertIssued(r, false); }
+
+    // `reserved`: the borrower's place was already taken with userLoans.reserve().
+    private void insertIssued(IssuedRecord r, boolean reserved) {
+        boolean open = r.getReturnDate() == null;
+        if (open) {
+            openLoans.add(r);
+            userLoans.add(r, reserved);
+        }
+        if (!issued.add(r)) {
+            if (open) closeLoan(r);
+            return;
+        }
+        issuedByMonth.computeIfAbsent(ShardedStore.monthKey(r.getIssueDate()), k -> new IdTable<>(IssuedRecord::getId)).add(r);
+        nextIssuedId.accumulateAndGet(r.getId() + 1, Math::max);
+        dirtyLoan(r);
+        CirculationStats st = stats;
+        st.loanIssued(r);
+        if (!open) st.loanReturned(r.getReturnDate());
+    }
+
+    // A loan that was returned (or never made it in) leaves the open-loan indexes.
+    private void closeLoan(IssuedRecord r) {
+        openLoans.remove(r);
+        userLoans.remove(r);
+        dirtyLoan(r);
+    }
+
+    // --- circulation statistics ---
+    // Kept current by every issue and return, so reading them costs nothing like a scan.
+    public CirculationStats getStats() { return stats; }
+
+    // Rebuilds the statistics from every loan still in memory plus, with an archive enabled,
+    // every archived one, read a month at a time. Mutations wait meanwhile, so none is counted
+    // twice or lost; the new figures replace the old in one step.
+    public void recomputeStats() {
+        gate.writeLock().lock();
+        long t = start(Op.RECOMPUTE_STATS);
+        try {
+            CirculationStats st = new CirculationStats(STATS_TOP_K);
+            for (IssuedRecord r : issued.view()) {
+                st.loanIssued(r);
+                if (r.getReturnDate() != null) st.loanReturned(r.getReturnDate());
+            }
+            LoanArchive a = archive;
+            if (a != null) {
+                try {
+                    for (YearMonth m : a.months()) {
+                        // a loan archived just before a crash may also still be live
+                        for (IssuedRecord r : a.read(m, m)) {
+                            if (issued.get(r.getId()) != null) continue;
+                            st.loanIssued(r);
+                            st.loanReturned(r.getReturnDate());
+                        }
+                    }
+                } catch (IOException e) {
+                    fail("Failed to read loan archive", e);
+                }
+            }
+            stats = st;
+        } finally {
+            stop(Op.RECOMPUTE_STATS, t);
+            gate.writeLock().unlock();
+        }
+    }
+
+    // Point-in-time copies; safe to iterate while other threads keep mutating.
+    public List<Book> getBooks() { return timed(Op.GET_BOOKS, books::snapshot); }
+    public List<User> getUsers() { return timed(Op.GET_USERS, users::snapshot); }
+    public List<IssuedRecord> getIssuedRecords() { return timed(Op.GET_ISSUED, issued::snapshot); }
+
+    // Keyset pages for listings that would otherwise copy a whole table: up to `limit` entries
+    // with ids above afterId that pass the filter (null for all), in id order. Pass the last id
+    // shown to get the next page. Without a filter this costs the page; with one, the rows
+    // scanned to fill it.
+    public List<Book> pageBooks(int afterId, int limit, Predicate<? super Book> filter) {
+        return timed(Op.PAGE_BOOKS, () -> page(books, Book::getId, afterId, limit, filter));
+    }
+
+    public List<User> pageUsers(int afterId, int limit, Predicate<? super User> filter) {
+        return timed(Op.PAGE_USERS, () -> page(users, User::getId, afterId, limit, filter));
+    }
+
+    public List<IssuedRecord> pageIssued(int afterId, int limit, Predicate<? super IssuedRecord> filter) {
+        return timed(Op.PAGE_ISSUED, () -> page(issued, IssuedRecord::getId, afterId, limit, filter));
+    }
+
+    // Everything above afterId in id order, fetched a page at a time as the stream is pulled,
+    // so filter(..).limit(..) stops reading once it has enough. Weakly consistent: entries
+    // added behind the cursor while it runs are not seen.
+    public Stream<Book> streamBooks(int afterId) { return stream(books, Book::getId, afterId); }
+    public Stream<User> streamUsers(int afterId) { return stream(users, User::getId, afterId); }
+    public Stream<IssuedRecord> streamIssued(int afterId) { return stream(issued, IssuedRecord::getId, afterId); }
+
+    private static <T> List<T> page(Table<T> t, ToIntFunction<T> idOf, int afterId, int limit, Predicate<? super T> filter) {
+        if (filter == null) return t.page(afterId, limit);
+        return stream(t, idOf, afterId).filter(filter).limit(Math.max(limit, 0)).toList();
+    }
+
+    private static <T> Stream<T> stream(Table<T> t, ToIntFunction<T> idOf, int afterId) {
+        return Stream.iterate(t.page(afterId, STREAM_PAGE), p -> !p.isEmpty(),
+                        p -> p.size() < STREAM_PAGE ? List.of() : t.page(idOf.applyAsInt(p.get(p.size() - 1)), STREAM_PAGE))
+                .flatMap(List::stream);
+    }
+
+    // Spelled out rather than through timed(): these are the hottest calls, and this way they
+    // capture nothing.
     public Book findBookById(int id) {
-        return books.stream().filter(x -> x.getId() == id).findFirst().orElse(null);
+        long t = start(Op.FIND_BOOK);
+        Book b = books.get(id);
+        stop(Op.FIND_BOOK, t);
+        return b;
     }
+
     public User findUserById(int id) {
-        return users.stream().filter(x -> x.getId() == id).findFirst().orElse(null);
+        long t = start(Op.FIND_USER);
+        User u = users.get(id);
+        stop(Op.FIND_USER, t);
+        return u;
     }
 
-    public List<Book> searchByTitle(String kw) {
-        String k = kw.toLowerCase();
-        List<Book> out = new ArrayList<>();
-        for (Book b : books) if (b.getTitle().toLowerCase().contains(k)) out.add(b);
+    public IssuedRecord findIssuedById(int id) {
+        long t = start(Op.FIND_ISSUED);
+        IssuedRecord r = issued.get(id);
+        stop(Op.FIND_ISSUED, t);
+        return r;
+    }
+
+    // Books whose title has a word starting with each word of kw, in any order
+    // ("harry pot" finds "Harry Potter"). A blank keyword matches everything.
+    // A lazy Library has no word index and reads the catalog through instead.
+    public List<Book> searchByTitle(String kw) { return timed(Op.SEARCH_TITLE, () -> search(titleIndex, Book::getTitle, kw)); }
+    public List<Book> searchByAuthor(String kw) { return timed(Op.SEARCH_AUTHOR, () -> search(authorIndex, Book::getAuthor, kw)); }
+
+    private List<Book> search(TokenIndex index, Function<Book, String> field, String kw) {
+        if (isLazy()) {
+            List<String> words = TokenIndex.tokenize(kw);
+            if (words.isEmpty()) return books.snapshot();
+            return stream(books, Book::getId, Integer.MIN_VALUE).filter(b -> TokenIndex.matches(words, field.apply(b))).toList();
+        }
+        int[] ids = index.query(kw);
+        if (ids == null) return books.snapshot();
+        List<Book> out = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            Book b = books.get(id);
+            if (b != null) out.add(b);
+        }
         return out;
     }
 
+    // Open loans past their due date, earliest due first.
     public List<IssuedRecord> getOverdueRecords() {
+        return timed(Op.OVERDUE, () -> openLoans.dueBefore(LocalDate.now()));
+    }
+
+    // Open loans due between today and `days` days from now, for reminder batches.
+    public List<IssuedRecord> getDueWithin(int days) {
         LocalDate today = LocalDate.now();
-        List<IssuedRecord> out = new ArrayList<>();
-        for (IssuedRecord r : issued) {
-            if (r.getReturnDate() == null && r.getDueDate().isBefore(today)) out.add(r);
-        }
-        return out;
+        return timed(Op.DUE_WITHIN, () -> openLoans.dueBetween(today, today.plusDays(days)));
     }
 
+    // What the user has out right now, earliest due first; no scan of the loan table.
+    public List<IssuedRecord> getLoansForUser(int userId) {
+        return timed(Op.LOANS_FOR_USER, () -> userLoans.loansOf(userId));
+    }
+
+    public int getOpenLoanCount(int userId) { return userLoans.count(userId); }
+
+    // Issues that would take a user past max open loans fail like an unavailable book;
+    // max <= 0 lifts the limit. Loans already out are never affected.
+    public void setMaxOpenLoans(int max) { maxOpenLoans = max; }
+    public int getMaxOpenLoans() { return maxOpenLoans; }
+
     public LocalDate getLastIssueDueDate() { return lastIssueDue; }
 
     // ----- JSON serialization (custom, simple, safe for our shapes) -----
     public String toJson() {
-        StringBuilder sb = new StringBuilder();
-        sb.append("{\n");
-        sb.append("  \"nextBookId\": ").append(nextBookId).append(",\n");
-        sb.append("  \"nextUserId\": ").append(nextUserId).append(",\n");
-        sb.append("  \"nextIssuedId\": ").append(nextIssuedId).append(",\n");
+        StringWriter sw = new StringWriter();
+        try {
+            writeJson(sw);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return sw.toString();
+    }
+
+    // Captures a consistent point in time, then streams it to the writer outside the gate, so
+    // mutations are held off only for the copy, not the serialization.
+    public void writeJson(Writer writer) throws IOException {
+        long t = start(Op.WRITE_JSON);
+        capture().writeJson(writer);
+        stop(Op.WRITE_JSON, t);
+    }
+
+    // ----- binary snapshot (see BinarySnapshot for the layout) -----
+    public void writeBinary(OutputStream out) throws IOException {
+        long t = start(Op.WRITE_BINARY);
+        capture().writeBinary(out);
+        stop(Op.WRITE_BINARY, t);
+    }
+
+    // Copy-on-write state for one snapshot. Users, holds and returned loans never change once
+    // visible, so they are shared; books and open loans are copied because their counts and
+    // return dates do. journalMark is the journal length the copy reflects.
+    private record Snapshot(int nextBookId, int nextUserId, int nextIssuedId, int nextHoldId, List<Book> books,
+                            List<User> users, List<IssuedRecord> issued, List<Hold> holds, long journalMark,
+                            long changeEpoch, long changeSeq) {
+        void writeJson(Writer writer) throws IOException {
+            JsonWriter out = new JsonWriter(writer);
+            out.beginObject();
+            out.name("nextBookId").value(nextBookId);
+            out.name("nextUserId").value(nextUserId);
+            out.name("nextIssuedId").value(nextIssuedId);
+            out.name("nextHoldId").value(nextHoldId);
+            if (changeEpoch != 0) {
+                out.name("changeEpoch").value(changeEpoch);
+                out.name("changeSeq").value(changeSeq);
+            }
+
+            out.name("books").beginArray();
+            for (Book b : books) b.writeJson(out);
+            out.endArray();
+
+            out.name("users").beginArray();
+            for (User u : users) u.writeJson(out);
+            out.endArray();
+
+            out.name("issued").beginArray();
+            for (IssuedRecord r : issued) r.writeJson(out);
+            out.endArray();
 
-        sb.append("  \"books\": [\n");
-        for (int i = 0; i < books.size(); i++) {
-            sb.append(indent(books.get(i).toJson(), 4));
-            if (i < books.size() - 1) sb.append(",\n");
-            else sb.append("\n");
+            out.name("holds").beginArray();
+            for (Hold h : holds) h.writeJson(out);
+            out.endArray();
+
+            out.endObject().newline();
+            out.flush();
         }
-        sb.append("  ],\n");
 
-        sb.append("  \"users\": [\n");
-        for (int i = 0; i < users.size(); i++) {
-            sb.append(indent(users.get(i).toJson(), 4));
-            if (i < users.size() - 1) sb.append(",\n");
-            else sb.append("\n");
+        void writeBinary(OutputStream out) throws IOException {
+            BinarySnapshot.write(out, nextBookId, nextUserId, nextIssuedId, books, users, issued, nextHoldId, holds,
+                    changeEpoch, changeSeq);
         }
-        sb.append("  ],\n");
+    }
 
-        sb.append("  \"issued\": [\n");
-        for (int i = 0; i < issued.size(); i++) {
-            sb.append(indent(issued.get(i).toJson(), 4));
-            if (i < issued.size() - 1) sb.append(",\n");
-            else sb.append("\n");
+    private Snapshot capture() {
+        gate.writeLock().lock();
+        try {
+            List<Book> bs = new ArrayList<>(books.size());
+            for (Book b : books.view()) bs.add(copyOf(b));
+            List<IssuedRecord> rs = new ArrayList<>(issued.size());
+            for (IssuedRecord r : issued.view()) rs.add(copyOf(r));
+            Journal j = journal;
+            ChangeFeed f = feed;
+            return new Snapshot(nextBookId.get(), nextUserId.get(), nextIssuedId.get(), nextHoldId.get(), bs,
+                    users.snapshot(), rs, holds.all(), j == null ? 0 : j.size(),
+                    f != null ? f.epoch() : changeEpoch, f != null ? f.lastSeq() : changeSeq);
+        } finally {
+            gate.writeLock().unlock();
         }
-        sb.append("  ]\n");
+    }
 
-        sb.append("}\n");
-        return sb.toString();
+    // Books' counts and open loans' return dates change, so snapshots take copies of them.
+    private static Book copyOf(Book b) {
+        return new Book(b.getId(), b.getTitle(), b.getAuthor(), b.getAvailableCopies(), b.getTotalCopies());
     }
 
-    private static String indent(String s, int spaces) {
-        String pad = " ".repeat(spaces);
-        String[] lines = s.split("\n");
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < lines.length; i++) {
-            sb.append(pad).append(lines[i]);
-            if (i < lines.length - 1) sb.append("\n");
-        }
-        return sb.toString();
+    private static IssuedRecord copyOf(IssuedRecord r) {
+        return r.getReturnDate() != null ? r
+                : new IssuedRecord(r.getId(), r.getBookId(), r.getUserId(), r.getIssueDate(), r.getDueDate(), null);
     }
 
-    // Very simple JSON parser tuned to our format. Not a general-purpose JSON library.
-    public static Library fromJson(String text) {
+    public static Library fromBinary(Path path) throws IOException {
         Library lib = new Library();
-        // extract integers
-        lib.nextBookId = getIntField(text, "\"nextBookId\"\\s*:\\s*(\\d+)", lib.nextBookId);
-        lib.nextUserId = getIntField(text, "\"nextUserId\"\\s*:\\s*(\\d+)", lib.nextUserId);
-        lib.nextIssuedId = getIntField(text, "\"nextIssuedId\"\\s*:\\s*(\\d+)", lib.nextIssuedId);
+        long t = lib.start(Op.FROM_BINARY);
+        BinarySnapshot.read(path, lib.loader());
+        lib.recordsParsed.add(lib.books.size() + lib.users.size() + lib.issued.size() + lib.holds.size());
+        lib.stop(Op.FROM_BINARY, t);
+        return lib;
+    }
+
+    // Shards are parsed side by side on the common pool. The store stays attached, so saves
+    // back to dir write only what changed.
+    public static Library fromShards(Path dir) throws IOException {
+        Library lib = new Library();
+        long t = lib.start(Op.FROM_SHARDS);
+        ShardedStore s = ShardedStore.open(dir);
+        ShardedStore.Header h = s.read(lib.loader(), ForkJoinPool.commonPool());
+        lib.changeEpoch = h.changeEpoch();
+        lib.changeSeq = h.changeSeq();
+        lib.shards = s;
+        lib.recordsParsed.add(lib.books.size() + lib.users.size() + lib.issued.size() + lib.holds.size());
+        lib.stop(Op.FROM_SHARDS, t);
+        return lib;
+    }
 
-        String booksArray = getArrayBody(text, "\"books\"\\s*:\\s*\\[", "]");
-        if (booksArray != null) {
-            List<String> objs = splitObjects(booksArray);
-            for (String o : objs) {
-                Book b = Book.fromJson(o);
-                if (b != null) lib.books.add(b);
+    // A read-only Library over a JSON snapshot that leaves books and users on disk. Lookups
+    // parse them on demand through an LRU cache of cacheSize entries per table (LazyTable),
+    // located by the snapshot's offset index, which the first open builds and saves as
+    // <path>.idx. Loans and holds load as usual: the due calendar, per-user loans and the
+    // statistics are built from them. A journal still holding changes is refused, as only a
+    // full load can apply it.
+    public static Library openLazy(String path, int cacheSize) throws IOException {
+        Path p = Paths.get(path);
+        Path jp = Journal.pathFor(p);
+        if (Files.exists(jp) && Files.size(jp) > 0) throw new IOException(jp + " holds changes the snapshot lacks; load it normally once to fold them in");
+        if (!Files.isRegularFile(p)) throw new IOException("no snapshot file at " + p);
+        if (BinarySnapshot.isBinaryFile(p)) throw new IOException("lazy loading needs a JSON snapshot");
+        FileChannel ch = FileChannel.open(p, StandardOpenOption.READ);
+        try {
+            SnapshotIndex idx = SnapshotIndex.load(p, ch);
+            boolean built = idx == null;
+            if (built) {
+                SnapshotFiles.Check check = SnapshotFiles.verify(p);
+                if (check.status() == SnapshotFiles.Status.DAMAGED) throw new IOException(p + ": " + check.problem());
+                idx = SnapshotIndex.build(p, ch);
+            }
+            Library lib = new Library(new LazyTable<>(ch, idx.books(), Book::readJson, cacheSize),
+                    new LazyTable<>(ch, idx.users(), User::readJson, cacheSize), new StringPool());
+            long t = lib.start(Op.OPEN_LAZY);
+            if (built) {
+                try {
+                    idx.save(p);
+                } catch (IOException e) {
+                    lib.fail("Failed to save snapshot index", e);
+                }
+            }
+            long parsed = 0;
+            for (Map.Entry<String, SnapshotIndex.Range> f : idx.fields().entrySet()) {
+                if (f.getKey().equals("books") || f.getKey().equals("users")) continue;
+                parsed += lib.readField(f.getKey(), SnapshotIndex.reader(ch, f.getValue()));
             }
+            int[] bookIds = idx.books().ids(), userIds = idx.users().ids();
+            if (bookIds.length > 0) lib.nextBookId.accumulateAndGet(bookIds[bookIds.length - 1] + 1, Math::max);
+            if (userIds.length > 0) lib.nextUserId.accumulateAndGet(userIds[userIds.length - 1] + 1, Math::max);
+            lib.recordsParsed.add(parsed);
+            lib.readOnly = true;
+            lib.lazyFile = ch;
+            lib.stop(Op.OPEN_LAZY, t);
+            return lib;
+        } catch (IOException | RuntimeException e) {
+            ch.close();
+            throw e;
         }
+    }
 
-        String usersArray = getArrayBody(text, "\"users\"\\s*:\\s*\\[", "]");
-        if (usersArray != null) {
-            List<String> objs = splitObjects(usersArray);
-            for (String o : objs) {
-                User u = User.fromJson(o);
-                if (u != null) lib.users.add(u);
-            }
+    public boolean isLazy() { return books instanceof LazyTable; }
+
+    // Releases a lazy Library's snapshot file; books and users not cached can't be read after.
+    public void closeLazy() {
+        FileChannel ch = lazyFile;
+        if (ch == null) return;
+        lazyFile = null;
+        try {
+            ch.close();
+        } catch (IOException e) {
+            fail("Failed to close snapshot", e);
         }
+    }
+
+    // Cache figures for a lazy Library's books and users; null for a loaded one.
+    public LazyTable.CacheStats getBookCacheStats() { return books instanceof LazyTable<Book> t ? t.stats() : null; }
+    public LazyTable.CacheStats getUserCacheStats() { return users instanceof LazyTable<User> t ? t.stats() : null; }
 
-        String issuedArray = getArrayBody(text, "\"issued\"\\s*:\\s*\\[", "]");
-        if (issuedArray != null) {
-            List<String> objs = splitObjects(issuedArray);
-            for (String o : objs) {
-                IssuedRecord r = IssuedRecord.fromJson(o);
-                if (r != null) lib.issued.add(r);
+    // Feeds a loading Library from a snapshot reader.
+    private BinarySnapshot.Sink loader() {
+        return new BinarySnapshot.Sink() {
+            public void nextIds(int book, int user, int issued) {
+                nextBookId.accumulateAndGet(book, Math::max);
+                nextUserId.accumulateAndGet(user, Math::max);
+                nextIssuedId.accumulateAndGet(issued, Math::max);
             }
-        }
+            public void book(Book b) { insertBook(b); }
+            public void user(User u) { insertUser(u); }
+            public void issued(IssuedRecord r) { insertIssued(r); }
+            public void nextHoldId(int id) { nextHoldId.accumulateAndGet(id, Math::max); }
+            public void hold(Hold h) { insertHold(h); }
+            public void changes(long epoch, long seq) {
+                changeEpoch = epoch;
+                changeSeq = seq;
+            }
+        };
+    }
 
-        // adjust next ids if parsed elements have larger ids (safety)
-        lib.nextBookId = Math.max(lib.nextBookId, lib.books.stream().mapToInt(Book::getId).max().orElse(0) + 1);
-        lib.nextUserId = Math.max(lib.nextUserId, lib.users.stream().mapToInt(User::getId).max().orElse(0) + 1);
-        lib.nextIssuedId = Math.max(lib.nextIssuedId, lib.issued.stream().mapToInt(IssuedRecord::getId).max().orElse(0) + 1);
+    // Single-pass streaming parse of our format. Unknown fields are skipped and objects
+    // without an id are dropped, as the old regex-based parser did.
+    public static Library fromJson(String text) {
+        try {
+            return fromJson(new StringReader(text));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
 
+    // Duplicate ids keep their first occurrence, matching the old linear lookups. Next ids end
+    // up past every parsed id whichever order the fields come in (safety).
+    public static Library fromJson(Reader reader) throws IOException {
+        Library lib = new Library();
+        long t = lib.start(Op.FROM_JSON);
+        JsonReader in = new JsonReader(reader);
+        long parsed = 0;
+        in.beginObject();
+        while (in.hasNext()) parsed += lib.readField(in.nextName(), in);
+        in.endObject();
+        lib.recordsParsed.add(parsed);
+        lib.stop(Op.FROM_JSON, t);
         return lib;
     }
 
-    // helpers for parsing
-    private static int getIntField(String text, String regex, int fallback) {
-        Pattern p = Pattern.compile(regex);
-        Matcher m = p.matcher(text);
-        if (m.find()) {
-            try { return Integer.parseInt(m.group(1)); } catch (Exception ignored) {}
+    // Reads the value of one top-level snapshot field into this Library; returns the number of
+    // records it held.
+    private long readField(String name, JsonReader in) throws IOException {
+        long parsed = 0;
+        switch (name) {
+            case "nextBookId" -> nextBookId.accumulateAndGet(in.nextInt(), Math::max);
+            case "nextUserId" -> nextUserId.accumulateAndGet(in.nextInt(), Math::max);
+            case "nextIssuedId" -> nextIssuedId.accumulateAndGet(in.nextInt(), Math::max);
+            case "nextHoldId" -> nextHoldId.accumulateAndGet(in.nextInt(), Math::max);
+            case "changeEpoch" -> changeEpoch = in.nextLong();
+            case "changeSeq" -> changeSeq = in.nextLong();
+            case "books" -> {
+                in.beginArray();
+                while (in.hasNext()) {
+                    Book b = Book.readJson(in);
+                    if (b != null) insertBook(b);
+                    parsed++;
+                }
+                in.endArray();
+            }
+            case "users" -> {
+                in.beginArray();
+                while (in.hasNext()) {
+                    User u = User.readJson(in);
+                    if (u != null) insertUser(u);
+                    parsed++;
+                }
+                in.endArray();
+            }
+            case "issued" -> {
+                in.beginArray();
+                while (in.hasNext()) {
+                    IssuedRecord r = IssuedRecord.readJson(in);
+                    if (r != null) insertIssued(r);
+                    parsed++;
+                }
+                in.endArray();
+            }
+            case "holds" -> {
+                in.beginArray();
+                while (in.hasNext()) {
+                    Hold h = Hold.readJson(in);
+                    if (h != null) insertHold(h);
+                    parsed++;
+                }
+                in.endArray();
+            }
+            default -> in.skipValue();
         }
-        return fallback;
+        return parsed;
     }
 
-    private static String getArrayBody(String text, String startRegex, String endToken) {
-        Pattern p = Pattern.compile(startRegex, Pattern.DOTALL);
-        Matcher m = p.matcher(text);
-        if (!m.find()) return null;
-        int start = m.end();
-        // find matching closing bracket for this array (simple approach)
-        int depth = 0;
-        int i = start;
-        for (; i < text.length(); i++) {
-            char c = text.charAt(i);
-            if (c == '[') depth++;
-            else if (c == ']') {
-                if (depth == 0) {
-                    return text.substring(start, i).trim();
-                } else depth--;
-            }
+    // fromJson spread over a fork-join pool. JsonSections finds the sections and the element
+    // boundaries in one cheap pass, then slices of PARALLEL_CHUNK elements are parsed as
+    // separate tasks. Each table is filled by its own task, taking the slices in file order,
+    // so duplicate ids resolve exactly as in fromJson and next ids end up past every id seen.
+    // Slices are read from the file with positional reads, so, like fromJson, this never holds
+    // the text in memory; only the boundary of every PARALLEL_CHUNK-th element is kept.
+    public static Library fromJsonParallel(Path path, ForkJoinPool pool) throws IOException {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            return fromJsonParallel(ch, pool);
         }
-        return null;
     }
 
-    // Splits top-level objects in an array body (handles nested braces)
-    private static List<String> splitObjects(String arrBody) {
-        List<String> out = new ArrayList<>();
-        int i = 0;
-        while (i < arrBody.length()) {
-            // skip whitespace and commas
-            while (i < arrBody.length() && (Character.isWhitespace(arrBody.charAt(i)) || arrBody.charAt(i) == ',')) i++;
-            if (i >= arrBody.length()) break;
-            if (arrBody.charAt(i) != '{') break;
-            int start = i;
-            int depth = 0;
-            for (; i < arrBody.length(); i++) {
-                char c = arrBody.charAt(i);
-                if (c == '{') depth++;
-                else if (c == '}') {
-                    depth--;
-                    if (depth == 0) { i++; break; }
-                }
-            }
-            String obj = arrBody.substring(start, i).trim();
-            out.add(obj);
+    private static Library fromJsonParallel(FileChannel text, ForkJoinPool pool) throws IOException {
+        Library lib = new Library();
+        long t = lib.start(Op.FROM_JSON);
+        Map<String, JsonSections.Field> fields = JsonSections.split(text, PARALLEL_CHUNK);
+        List<ForkJoinTask<List<Book>>> books = parseChunks(pool, text, fields.get("books"), Book::readJson);
+        List<ForkJoinTask<List<User>>> users = parseChunks(pool, text, fields.get("users"), User::readJson);
+        List<ForkJoinTask<List<IssuedRecord>>> issued = parseChunks(pool, text, fields.get("issued"), IssuedRecord::readJson);
+        List<ForkJoinTask<List<Hold>>> holds = parseChunks(pool, text, fields.get("holds"), Hold::readJson);
+        List<ForkJoinTask<?>> fills = List.of(
+                pool.submit(() -> { for (var c : books) for (Book b : c.join()) lib.insertBook(b); }),
+                pool.submit(() -> { for (var c : users) for (User u : c.join()) lib.insertUser(u); }),
+                pool.submit(() -> { for (var c : issued) for (IssuedRecord r : c.join()) lib.insertIssued(r); }),
+                pool.submit(() -> { for (var c : holds) for (Hold h : c.join()) lib.insertHold(h); }));
+        try {
+            for (ForkJoinTask<?> f : fills) f.join();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        lib.nextBookId.accumulateAndGet(intField(text, fields.get("nextBookId")), Math::max);
+        lib.nextUserId.accumulateAndGet(intField(text, fields.get("nextUserId")), Math::max);
+        lib.nextIssuedId.accumulateAndGet(intField(text, fields.get("nextIssuedId")), Math::max);
+        lib.nextHoldId.accumulateAndGet(intField(text, fields.get("nextHoldId")), Math::max);
+        if (fields.containsKey("changeEpoch")) lib.changeEpoch = longField(text, fields.get("changeEpoch"));
+        if (fields.containsKey("changeSeq")) lib.changeSeq = longField(text, fields.get("changeSeq"));
+        long parsed = 0;
+        for (String s : List.of("books", "users", "issued", "holds")) if (fields.containsKey(s)) parsed += fields.get(s).count();
+        lib.recordsParsed.add(parsed);
+        lib.stop(Op.FROM_JSON, t);
+        return lib;
+    }
+
+    private interface JsonParser<T> { T read(JsonReader in) throws IOException; }
+
+    private static <T> List<ForkJoinTask<List<T>>> parseChunks(ForkJoinPool pool, FileChannel text, JsonSections.Field f, JsonParser<T> parser) {
+        List<ForkJoinTask<List<T>>> out = new ArrayList<>();
+        if (f == null || f.chunks() == null) return out;
+        long[] at = f.chunks();
+        for (int i = 0; i + 1 < at.length; i++) {
+            long from = at[i], to = at[i + 1];
+            out.add(pool.submit(() -> {
+                List<T> items = new ArrayList<>();
+                try {
+                    JsonReader in = JsonSections.reader(text, from, to);
+                    while (in.hasNext()) {
+                        T item = parser.read(in);
+                        if (item != null) items.add(item);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return items;
+            }));
         }
         return out;
     }
+
+    private static int intField(FileChannel text, JsonSections.Field f) throws IOException {
+        return f == null ? 0 : JsonSections.reader(text, f.start(), f.end()).nextInt();
+    }
+
+    private static long longField(FileChannel text, JsonSections.Field f) throws IOException {
+        return JsonSections.reader(text, f.start(), f.end()).nextLong();
+    }
 }
@@ -0,0 +1,379 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// HTTP/JSON front end over one shared Library, one virtual thread per request.
+//
+//   POST /books               {"title":..,"author":..,"copies":n}   -> book
+//   GET  /books/{id}                                                 -> book | 404
+//   GET  /books?title=..  or  /books?author=..                       -> [book]
+//   POST /users               {"name":..,"email":..}                 -> user
+//   GET  /users/{id}                                                 -> user | 404
+//   GET  /users/{id}/loans                                           -> [open loan] | 404
+//   POST /loans               {"bookId":n,"userId":n,"days":n}       -> loan | 409
+//   GET  /loans/{id}                                                 -> loan | 404
+//   POST /loans/{id}/return                                          -> loan | 409
+//   GET  /loans/overdue                                              -> [loan]
+//   POST /holds               {"bookId":n,"userId":n,"days":n}       -> hold | 409
+//   GET  /holds?bookId=n                                             -> [hold] in queue order
+//   DELETE /holds/{id}                                               -> 204 | 404
+//   GET  /stats[?top=n&days=d]  issues in total, top n books and users, last d days' counts
+//   GET  /snapshot            full JSON snapshot, stamped with the change feed position
+//   GET  /changes?since=n[&limit=m]  feed lines after n, one per line | 410 if n is gone;
+//                             the X-Change-Epoch header names the feed (see ReplicaApplier)
+//   GET  /metrics             Prometheus text; /metrics?format=json for JSON
+public class LibraryServer {
+    private static final long SAVE_COALESCE_MILLIS = 1000;
+    private static final int CHANGE_RING = 1 << 16;
+    private static final int CHANGE_BATCH = 1000;
+    private static final int STATS_TOP = 10, STATS_DAYS = 14;
+    // a day is a row of the reply, so the window is capped like any other request size
+    private static final int STATS_MAX_DAYS = 3660;
+
+    private final Library lib;
+    private final HttpServer http;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    public LibraryServer(Library lib, int port) throws IOException {
+        // headers and body go out in separate writes; with Nagle on, every reply on a kept-alive
+        // connection waits out the client's delayed ACK (~40ms)
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) System.setProperty("sun.net.httpserver.nodelay", "true");
+        this.lib = lib;
+        this.http = HttpServer.create(new InetSocketAddress(port), 0);
+        http.createContext("/books", this::books);
+        http.createContext("/users", this::users);
+        http.createContext("/loans", this::loans);
+        http.createContext("/holds", this::holds);
+        http.createContext("/stats", this::stats);
+        http.createContext("/snapshot", this::snapshot);
+        http.createContext("/changes", this::changes);
+        http.createContext("/metrics", this::metrics);
+        http.setExecutor(executor);
+    }
+
+    public void start() { http.start(); }
+
+    public int getPort() { return http.getAddress().getPort(); }
+
+    public void stop() {
+        http.stop(1);
+        executor.close();
+    }
+
+    // Runs until killed; the journal makes every acknowledged request durable, the background
+    // writer folds it into the snapshot after each burst and the shutdown hook waits for that.
+    public static void serve(String dataFile, String archiveDir, int port) throws IOException {
+        Library.setDefaultMetrics(new MetricsRegistry());
+        Library lib = Library.loadFromFile(dataFile);
+        lib.enableJournal(dataFile, Journal.FsyncPolicy.ALWAYS);
+        lib.enableArchive(archiveDir);
+        lib.enableAsyncSave(dataFile, SAVE_COALESCE_MILLIS);
+        lib.enableChangeFeed(dataFile + ".changes", CHANGE_RING);
+        LibraryServer server = new LibraryServer(lib, port);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop();
+            try {
+                lib.closeAsyncSave(); // a failed last save leaves its changes in the journal
+            } finally {
+                lib.closeJournal();
+                lib.closeChangeFeed();
+            }
+        }));
+        server.start();
+        System.out.println("Library server listening on port " + server.getPort());
+    }
+
+    // Serves a snapshot read-only through Library.openLazy, for catalogs mostly left cold:
+    // books and users are parsed when asked for and at most cacheSize of each stay in memory.
+    // Writes get 405.
+    public static void serveLazy(String dataFile, int port, int cacheSize) throws IOException {
+        Library.setDefaultMetrics(new MetricsRegistry());
+        Library lib = Library.openLazy(dataFile, cacheSize);
+        LibraryServer server = new LibraryServer(lib, port);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop();
+            lib.closeLazy();
+        }));
+        server.start();
+        System.out.println("Library server listening on port " + server.getPort() + " (read-only, lazy)");
+    }
+
+    // --- handlers ---
+
+    private void books(HttpExchange ex) throws IOException {
+        handle(ex, () -> {
+            String[] path = segments(ex);
+            String method = ex.getRequestMethod();
+            if (path.length == 1 && method.equals("POST")) {
+                Map<String, String> body = body(ex);
+                Book b = lib.addBook(required(body, "title"), body.getOrDefault("author", ""), intField(body, "copies"));
+                return reply(ex, 201, out -> b.writeJson(out));
+            }
+            if (path.length == 1 && method.equals("GET")) {
+                Map<String, String> q = query(ex);
+                List<Book> found = q.containsKey("author") ? lib.searchByAuthor(q.get("author")) : lib.searchByTitle(q.getOrDefault("title", ""));
+                return reply(ex, 200, out -> {
+                    out.beginArray();
+                    for (Book b : found) b.writeJson(out);
+                    out.endArray();
+                });
+            }
+            if (path.length == 2 && method.equals("GET")) {
+                Book b = lib.findBookById(Integer.parseInt(path[1]));
+                return b == null ? error(ex, 404, "no such book") : reply(ex, 200, out -> b.writeJson(out));
+            }
+            return error(ex, 404, "not found");
+        });
+    }
+
+    private void users(HttpExchange ex) throws IOException {
+        handle(ex, () -> {
+            String[] path = segments(ex);
+            String method = ex.getRequestMethod();
+            if (path.length == 1 && method.equals("POST")) {
+                Map<String, String> body = body(ex);
+                User u = lib.addUser(required(body, "name"), body.get("email"));
+                return reply(ex, 201, out -> u.writeJson(out));
+            }
+            if (path.length == 2 && method.equals("GET")) {
+                User u = lib.findUserById(Integer.parseInt(path[1]));
+                return u == null ? error(ex, 404, "no such user") : reply(ex, 200, out -> u.writeJson(out));
+            }
+            if (path.length == 3 && path[2].equals("loans") && method.equals("GET")) {
+                int id = Integer.parseInt(path[1]);
+                if (lib.findUserById(id) == null) return error(ex, 404, "no such user");
+                List<IssuedRecord> loans = lib.getLoansForUser(id);
+                return reply(ex, 200, out -> {
+                    out.beginArray();
+                    for (IssuedRecord r : loans) r.writeJson(out);
+                    out.endArray();
+                });
+            }
+            return error(ex, 404, "not found");
+        });
+    }
+
+    private void loans(HttpExchange ex) throws IOException {
+        handle(ex, () -> {
+            String[] path = segments(ex);
+            String method = ex.getRequestMethod();
+            if (path.length == 1 && method.equals("POST")) {
+                Map<String, String> body = body(ex);
+                IssuedRecord r = lib.issue(intField(body, "bookId"), intField(body, "userId"), intField(body, "days"));
+                return r == null ? error(ex, 409, "book, user unknown, no copy available or borrowing limit reached") : reply(ex, 201, out -> r.writeJson(out));
+            }
+            if (path.length == 2 && path[1].equals("overdue") && method.equals("GET")) {
+                List<IssuedRecord> overdue = lib.getOverdueRecords();
+                return reply(ex, 200, out -> {
+                    out.beginArray();
+                    for (IssuedRecord r : overdue) r.writeJson(out);
+                    out.endArray();
+                });
+            }
+            if (path.length == 2 && method.equals("GET")) {
+                IssuedRecord r = lib.findIssuedById(Integer.parseInt(path[1]));
+                return r == null ? error(ex, 404, "no such loan") : reply(ex, 200, out -> r.writeJson(out));
+            }
+            if (path.length == 3 && path[2].equals("return") && method.equals("POST")) {
+                int id = Integer.parseInt(path[1]);
+                if (!lib.returnBook(id)) return error(ex, 409, "unknown loan or already returned");
+                IssuedRecord r = lib.findIssuedById(id);
+                return reply(ex, 200, out -> { if (r != null) r.writeJson(out); else out.beginObject().endObject(); });
+            }
+            return error(ex, 404, "not found");
+        });
+    }
+
+    private void holds(HttpExchange ex) throws IOException {
+        handle(ex, () -> {
+            String[] path = segments(ex);
+            String method = ex.getRequestMethod();
+            if (path.length == 1 && method.equals("POST")) {
+                Map<String, String> body = body(ex);
+                Hold h = lib.placeHold(intField(body, "bookId"), intField(body, "userId"), intField(body, "days"));
+                return h == null ? error(ex, 409, "book, user unknown, copy available, already waiting or borrowing limit reached")
+                        : reply(ex, 201, out -> h.writeJson(out));
+            }
+            if (path.length == 1 && method.equals("GET")) {
+                List<Hold> queue = lib.getHolds(intField(query(ex), "bookId"));
+                return reply(ex, 200, out -> {
+                    out.beginArray();
+                    for (Hold h : queue) h.writeJson(out);
+                    out.endArray();
+                });
+            }
+            if (path.length == 2 && method.equals("DELETE")) {
+                if (!lib.cancelHold(Integer.parseInt(path[1]))) return error(ex, 404, "no such hold");
+                ex.sendResponseHeaders(204, -1);
+                return null;
+            }
+            return error(ex, 404, "not found");
+        });
+    }
+
+    private void stats(HttpExchange ex) throws IOException {
+        handle(ex, () -> {
+            if (!ex.getRequestMethod().equals("GET")) return error(ex, 404, "not found");
+            Map<String, String> q = query(ex);
+            int top = q.containsKey("top") ? intField(q, "top") : STATS_TOP;
+            int days = q.containsKey("days") ? intField(q, "days") : STATS_DAYS;
+            if (days > STATS_MAX_DAYS) throw new IllegalArgumentException("days must be <= " + STATS_MAX_DAYS);
+            CirculationStats st = lib.getStats();
+            LocalDate to = LocalDate.now(), from = to.minusDays(days - 1);
+            Map<LocalDate, Long> issues = st.getDailyIssues(from, to), returns = st.getDailyReturns(from, to);
+            return reply(ex, 200, out -> {
+                out.beginObject().name("totalIssues").value(st.getTotalIssues());
+                out.name("topBooks");
+                ranked(out, st.getTopBooks(top));
+                out.name("topUsers");
+                ranked(out, st.getTopUsers(top));
+                out.name("daily").beginArray();
+                for (LocalDate d = from; !d.isAfter(to); d = d.plusDays(1)) {
+                    out.beginObject().name("date").value(d)
+                            .name("issued").value(issues.getOrDefault(d, 0L))
+                            .name("returned").value(returns.getOrDefault(d, 0L)).endObject();
+                }
+                out.endArray().endObject();
+            });
+        });
+    }
+
+    private static void ranked(JsonWriter out, List<CirculationStats.Ranked> list) throws IOException {
+        out.beginArray();
+        for (CirculationStats.Ranked r : list) out.beginObject().name("id").value(r.id()).name("issues").value(r.count()).endObject();
+        out.endArray();
+    }
+
+    private void snapshot(HttpExchange ex) throws IOException {
+        handle(ex, () -> {
+            StringWriter sw = new StringWriter();
+            lib.writeJson(sw);
+            return send(ex, 200, "application/json", sw.toString());
+        });
+    }
+
+    private void changes(HttpExchange ex) throws IOException {
+        handle(ex, () -> {
+            ChangeFeed feed = lib.getChangeFeed();
+            if (feed == null) return error(ex, 404, "change feed is off");
+            Map<String, String> q = query(ex);
+            long since = Long.parseLong(required(q, "since"));
+            int limit = q.containsKey("limit") ? Math.min(intField(q, "limit"), 10 * CHANGE_BATCH) : CHANGE_BATCH;
+            ex.getResponseHeaders().set("X-Change-Epoch", Long.toString(feed.epoch()));
+            List<String> lines = feed.since(since, limit);
+            if (lines == null) return error(ex, 410, "changes after " + since + " are no longer kept; fetch /snapshot");
+            StringBuilder sb = new StringBuilder();
+            for (String line : lines) sb.append(line).append('\n');
+            return send(ex, 200, "application/x-ndjson", sb.toString());
+        });
+    }
+
+    private void metrics(HttpExchange ex) throws IOException {
+        handle(ex, () -> {
+            if (!(lib.getMetrics() instanceof MetricsRegistry m)) return error(ex, 404, "metrics are disabled");
+            if ("json".equals(query(ex).get("format"))) {
+                StringWriter sw = new StringWriter();
+                m.writeJson(sw);
+                return send(ex, 200, "application/json", sw.toString());
+            }
+            StringWriter sw = new StringWriter();
+            m.writePrometheus(sw);
+            return send(ex, 200, "text/plain; version=0.0.4", sw.toString());
+        });
+    }
+
+    // --- plumbing ---
+
+    private interface Handler { Void run() throws IOException; }
+    private interface Body { void write(JsonWriter out) throws IOException; }
+
+    // Bad input (numbers and dates that don't parse included) is a 400; anything else that
+    // goes wrong is a 500 rather than a dropped connection, unless the reply had already begun.
+    private static void handle(HttpExchange ex, Handler h) throws IOException {
+        try (ex) {
+            try {
+                h.run();
+            } catch (IllegalArgumentException | DateTimeException e) {
+                error(ex, 400, e.getMessage() == null ? "bad request" : e.getMessage());
+            } catch (UnsupportedOperationException e) {
+                error(ex, 405, e.getMessage());
+            } catch (IOException e) {
+                error(ex, 400, e.getMessage());
+            } catch (RuntimeException e) {
+                System.out.println("Request " + ex.getRequestMethod() + " " + ex.getRequestURI() + " failed: " + e);
+                if (ex.getResponseCode() == -1) error(ex, 500, "internal error");
+            }
+        }
+    }
+
+    private static Void reply(HttpExchange ex, int status, Body body) throws IOException {
+        StringWriter sw = new StringWriter();
+        JsonWriter out = new JsonWriter(sw, false);
+        body.write(out);
+        return send(ex, status, "application/json", sw.toString());
+    }
+
+    private static Void send(HttpExchange ex, int status, String contentType, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", contentType);
+        ex.sendResponseHeaders(status, bytes.length);
+        try (OutputStream os = ex.getResponseBody()) {
+            os.write(bytes);
+        }
+        return null;
+    }
+
+    private static Void error(HttpExchange ex, int status, String message) throws IOException {
+        return reply(ex, status, out -> out.beginObject().name("error").value(message).endObject());
+    }
+
+    private static String[] segments(HttpExchange ex) {
+        String p = ex.getRequestURI().getPath();
+        while (p.startsWith("/")) p = p.substring(1);
+        while (p.endsWith("/")) p = p.substring(0, p.length() - 1);
+        return p.split("/");
+    }
+
+    private static Map<String, String> query(HttpExchange ex) {
+        Map<String, String> out = new HashMap<>();
+        String q = ex.getRequestURI().getRawQuery();
+        if (q == null) return out;
+        for (String pair : q.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq <= 0) continue;
+            out.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                    URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+        }
+        return out;
+    }
+
+    private static Map<String, String> body(HttpExchange ex) throws IOException {
+        return new JsonReader(new InputStreamReader(ex.getRequestBody(), StandardCharsets.UTF_8)).nextFlatObject();
+    }
+
+    private static String required(Map<String, String> body, String field) {
+        String v = body.get(field);
+        if (v == null || v.isBlank()) throw new IllegalArgumentException("missing " + field);
+        return v;
+    }
+
+    private static int intField(Map<String, String> body, String field) {
+        int v = Integer.parseInt(required(body, field));
+        if (v < 1) throw new IllegalArgumentException(field + " must be >= 1");
+        return v;
+    }
+}
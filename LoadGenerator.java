@@ -0,0 +1,161 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Closed-loop load against a running LibraryServer: each client sends its next request as soon
+// as the last one answers, for a fixed time, then the run reports throughput and latency
+// percentiles. The mix is read-heavy, roughly what a circulation desk does:
+//   55% book by id, 20% title search, 10% issue, 10% return, 5% overdue report
+//
+//   java LoadGenerator <http://host:port> [clients] [seconds] [seedBooks]
+public class LoadGenerator {
+    private static final Pattern ID = Pattern.compile("\"id\"\\s*:\\s*(\\d+)");
+    private static final String[] WORDS = { "river", "shadow", "garden", "winter", "empire", "secret", "silver", "storm" };
+
+    private final String base;
+    private final HttpClient client;
+    private final AtomicInteger lastLoan = new AtomicInteger();
+    private int books, users;
+
+    public LoadGenerator(String base, HttpClient client) {
+        this.base = base.endsWith("/") ? base.substring(0, base.length() - 1) : base;
+        this.client = client;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("usage: LoadGenerator <http://host:port> [clients] [seconds] [seedBooks]");
+            return;
+        }
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        int seedBooks = args.length > 3 ? Integer.parseInt(args[3]) : 1000;
+        try (ExecutorService threads = Executors.newVirtualThreadPerTaskExecutor()) {
+            HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).executor(threads).connectTimeout(Duration.ofSeconds(5)).build();
+            LoadGenerator gen = new LoadGenerator(args[0], client);
+            gen.seed(seedBooks, Math.max(1, seedBooks / 10));
+            gen.run(threads, clients, Duration.ofSeconds(seconds));
+        }
+    }
+
+    // Adds books and users so the mix has something to hit; ids are taken from the replies.
+    public void seed(int bookCount, int userCount) throws IOException, InterruptedException {
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        for (int i = 0; i < bookCount; i++) {
+            books = Math.max(books, idOf(post("/books", "{\"title\":\"" + title(rnd) + "\",\"author\":\"Load " + (i % 50) + "\",\"copies\":3}")));
+        }
+        for (int i = 0; i < userCount; i++) {
+            users = Math.max(users, idOf(post("/users", "{\"name\":\"Load User " + i + "\",\"email\":\"load" + i + "@example.org\"}")));
+        }
+        System.out.println("Seeded up to book " + books + ", user " + users);
+    }
+
+    public void run(ExecutorService threads, int clients, Duration length) throws Exception {
+        long end = System.nanoTime() + length.toNanos();
+        List<Future<long[]>> workers = new ArrayList<>();
+        AtomicInteger errors = new AtomicInteger();
+        for (int c = 0; c < clients; c++) workers.add(threads.submit(() -> work(end, errors)));
+
+        long[][] parts = new long[clients][];
+        int total = 0;
+        for (int c = 0; c < clients; c++) {
+            parts[c] = workers.get(c).get();
+            total += parts[c].length;
+        }
+        long[] all = new long[total];
+        int at = 0;
+        for (long[] p : parts) {
+            System.arraycopy(p, 0, all, at, p.length);
+            at += p.length;
+        }
+        Arrays.sort(all);
+        double secs = length.toNanos() / 1e9;
+        System.out.printf("%d requests in %.1fs with %d clients: %.0f req/s, %d errors%n", total, secs, clients, total / secs, errors.get());
+        if (total == 0) return;
+        System.out.printf("latency ms: p50 %.2f  p90 %.2f  p99 %.2f  p99.9 %.2f  max %.2f%n",
+                ms(pct(all, 50)), ms(pct(all, 90)), ms(pct(all, 99)), ms(pct(all, 99.9)), ms(all[total - 1]));
+    }
+
+    // One client: returns the latency of every request it finished, in nanoseconds.
+    private long[] work(long end, AtomicInteger errors) {
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        long[] lat = new long[1024];
+        int n = 0;
+        while (System.nanoTime() < end) {
+            long t0 = System.nanoTime();
+            try {
+                int roll = rnd.nextInt(100);
+                HttpResponse<String> res;
+                if (roll < 55) {
+                    res = get("/books/" + (1 + rnd.nextInt(books)));
+                } else if (roll < 75) {
+                    res = get("/books?title=" + WORDS[rnd.nextInt(WORDS.length)]);
+                } else if (roll < 85) {
+                    res = send(post("/loans", "{\"bookId\":" + (1 + rnd.nextInt(books)) + ",\"userId\":" + (1 + rnd.nextInt(users)) + ",\"days\":14}"));
+                    if (res.statusCode() == 201) lastLoan.accumulateAndGet(idOf(res), Math::max);
+                } else if (roll < 95) {
+                    int loan = lastLoan.get();
+                    res = loan == 0 ? get("/loans/overdue") : send(post("/loans/" + (1 + rnd.nextInt(loan)) + "/return", ""));
+                } else {
+                    res = get("/loans/overdue");
+                }
+                if (res.statusCode() >= 500) errors.incrementAndGet();
+            } catch (IOException e) {
+                errors.incrementAndGet();
+                continue;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            if (n == lat.length) lat = Arrays.copyOf(lat, n * 2);
+            lat[n++] = System.nanoTime() - t0;
+        }
+        return Arrays.copyOf(lat, n);
+    }
+
+    private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        return client.send(HttpRequest.newBuilder(URI.create(base + path)).GET().build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpRequest post(String path, String json) {
+        return HttpRequest.newBuilder(URI.create(base + path))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(json.isEmpty() ? "{}" : json)).build();
+    }
+
+    private HttpResponse<String> send(HttpRequest req) throws IOException, InterruptedException {
+        return client.send(req, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private int idOf(HttpRequest req) throws IOException, InterruptedException { return idOf(send(req)); }
+
+    private static int idOf(HttpResponse<String> res) throws IOException {
+        Matcher m = ID.matcher(res.body());
+        if (res.statusCode() >= 300 || !m.find()) throw new IOException("unexpected reply " + res.statusCode() + ": " + res.body());
+        return Integer.parseInt(m.group(1));
+    }
+
+    private static String title(ThreadLocalRandom rnd) {
+        return WORDS[rnd.nextInt(WORDS.length)] + " " + WORDS[rnd.nextInt(WORDS.length)];
+    }
+
+    private static long pct(long[] sorted, double p) {
+        int i = (int) Math.ceil(p / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(i, sorted.length - 1))];
+    }
+
+    private static double ms(long nanos) { return nanos / 1e6; }
+}
@@ -1,13 +1,54 @@
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Paths;
 import java.util.Scanner;
 import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.ToIntFunction;
 
 public class Main {
-    private static final String DATA_FILE = "library.json";
+    // a name ending in .shards keeps the data as a directory of shards (see ShardedStore)
+    private static final String DATA_FILE = System.getProperty("library.dataFile", "library.json");
+    private static final String ARCHIVE_DIR = "library-archive";
+    // with --serve, > 0 serves the data file read-only, keeping this many books and users
+    // cached and the rest on disk (see Library.openLazy)
+    private static final int LAZY_CACHE = Integer.getInteger("library.lazyCache", 0);
+    // how long the background writer lets a burst of changes build up before saving
+    private static final long SAVE_COALESCE_MILLIS = 2000;
+    // circulation report: how many books and users to rank, how many days back to count
+    private static final int REPORT_TOP = 10;
+    private static final int REPORT_DAYS = 14;
+    // rows per screen in the book, user and loan listings
+    private static final int PAGE_SIZE = 20;
     private static final Scanner sc = new Scanner(System.in);
 
     public static void main(String[] args) {
+        Library.setDefaultMetrics(new MetricsRegistry());
+        if (args.length > 0 && args[0].equals("--serve")) {
+            try {
+                int port = args.length > 1 ? Integer.parseInt(args[1]) : 8080;
+                if (LAZY_CACHE > 0) LibraryServer.serveLazy(DATA_FILE, port, LAZY_CACHE);
+                else LibraryServer.serve(DATA_FILE, ARCHIVE_DIR, port);
+            } catch (IOException e) {
+                System.out.println("Failed to start server: " + e.getMessage());
+            }
+            return;
+        }
         Library lib = Library.loadFromFile(DATA_FILE);
+        lib.enableJournal(DATA_FILE, Journal.FsyncPolicy.ALWAYS);
+        lib.enableArchive(ARCHIVE_DIR);
+        lib.enableAsyncSave(DATA_FILE, SAVE_COALESCE_MILLIS);
+        lib.addHoldListener((hold, loan) -> {
+            User u = lib.findUserById(hold.getUserId());
+            Book b = lib.findBookById(hold.getBookId());
+            System.out.printf("Notice: %s's hold on \"%s\" is filled. IssuedID:%d | Due:%s%n",
+                    u == null ? "?" : u.getName(), b == null ? "?" : b.getTitle(), loan.getId(), loan.getDueDate());
+        });
         System.out.println("=== Library (JSON) ===");
         boolean running = true;
         while (running) {
@@ -24,8 +65,16 @@ public class Main {
                     case "7" -> returnBookFlow(lib);
                     case "8" -> listIssued(lib);
                     case "9" -> listOverdue(lib);
+                    case "10" -> loanHistoryFlow(lib);
+                    case "11" -> importFlow(lib);
+                    case "12" -> metricsFlow(lib);
+                    case "13" -> userLoansFlow(lib);
+                    case "14" -> cancelHoldFlow(lib);
+                    case "15" -> circulationFlow(lib);
                     case "0" -> {
-                        lib.saveToFile(DATA_FILE);
+                        lib.flush(); // a failed save keeps the menu open so it can be retried
+                        lib.closeAsyncSave();
+                        lib.closeJournal();
                         System.out.println("Saved. Exiting.");
                         running = false;
                     }
@@ -43,13 +92,19 @@ public class Main {
         System.out.println("Menu:");
         System.out.println("1) Add book");
         System.out.println("2) List books");
-        System.out.println("3) Search book (id/title)");
+        System.out.println("3) Search book (id/title/author)");
         System.out.println("4) Register user");
         System.out.println("5) List users");
         System.out.println("6) Issue book");
         System.out.println("7) Return book");
         System.out.println("8) List issued records");
         System.out.println("9) List overdue books");
+        System.out.println("10) Loan history (returned, by month)");
+        System.out.println("11) Bulk import (CSV / JSON lines)");
+        System.out.println("12) Metrics dump (JSON / Prometheus)");
+        System.out.println("13) Loans and holds of a user");
+        System.out.println("14) Cancel a hold");
+        System.out.println("15) Circulation report (most borrowed, daily counts)");
         System.out.println("0) Save & Exit");
         System.out.print("Choose: ");
     }
@@ -63,20 +118,14 @@ public class Main {
         int copies = readInt("Copies: ", 1);
         Book b = lib.addBook(title, author, copies);
         System.out.println("Added: " + b);
-        lib.saveToFile(DATA_FILE);
     }
 
     private static void listBooks(Library lib) {
-        List<Book> books = lib.getBooks();
-        if (books.isEmpty()) {
-            System.out.println("No books.");
-            return;
-        }
-        for (Book b : books) System.out.println(b);
+        listPaged("No books.", (after, n) -> lib.pageBooks(after, n, null), Book::getId, RowFormatter::book);
     }
 
     private static void searchBookFlow(Library lib) {
-        System.out.print("Search by (1) id or (2) title? ");
+        System.out.print("Search by (1) id, (2) title or (3) author? ");
         String opt = sc.nextLine().trim();
         if ("1".equals(opt)) {
             int id = readInt("Book ID: ", 1);
@@ -85,7 +134,7 @@ public class Main {
         } else {
             System.out.print("Keyword: ");
             String kw = sc.nextLine().trim();
-            List<Book> res = lib.searchByTitle(kw);
+            List<Book> res = "3".equals(opt) ? lib.searchByAuthor(kw) : lib.searchByTitle(kw);
             if (res.isEmpty()) System.out.println("No matches.");
             else res.forEach(System.out::println);
         }
@@ -98,35 +147,122 @@ public class Main {
         String email = sc.nextLine().trim();
         User u = lib.addUser(name, email.isEmpty() ? null : email);
         System.out.println("Registered: " + u);
-        lib.saveToFile(DATA_FILE);
     }
 
     private static void listUsers(Library lib) {
-        List<User> users = lib.getUsers();
-        if (users.isEmpty()) System.out.println("No users.");
-        else users.forEach(System.out::println);
+        listPaged("No users.", (after, n) -> lib.pageUsers(after, n, null), User::getId, RowFormatter::user);
     }
 
+    // Several comma-separated ids make one basket: all of them go through or none do.
     private static void issueBookFlow(Library lib) {
-        int bookId = readInt("Book ID: ", 1);
+        int[] bookIds = readIds("Book ID(s), comma-separated: ");
         int userId = readInt("User ID: ", 1);
         int days = readInt("Loan days (e.g., 14): ", 1);
-        boolean ok = lib.issueBook(bookId, userId, days);
-        System.out.println(ok ? "Issued. Due: " + lib.getLastIssueDueDate() : "Failed to issue.");
-        lib.saveToFile(DATA_FILE);
+        if (bookIds.length == 1) {
+            boolean ok = lib.issueBook(bookIds[0], userId, days);
+            System.out.println(ok ? "Issued. Due: " + lib.getLastIssueDueDate() : "Failed to issue.");
+            Book b = lib.findBookById(bookIds[0]);
+            if (!ok && b != null && b.getAvailableCopies() == 0) offerHold(lib, b, userId, days);
+            return;
+        }
+        List<IssuedRecord> loans = lib.issueBooks(userId, bookIds, days);
+        if (loans == null) System.out.println("Failed to issue; nothing was issued.");
+        else System.out.println("Issued " + loans.size() + " books. Due: " + lib.getLastIssueDueDate());
+    }
+
+    private static void offerHold(Library lib, Book b, int userId, int days) {
+        System.out.print("No copy on the shelf. Place a hold? (y/n): ");
+        if (!sc.nextLine().trim().toLowerCase().startsWith("y")) return;
+        Hold h = lib.placeHold(b.getId(), userId, days);
+        if (h == null) System.out.println("Failed to place hold.");
+        else System.out.println("Hold placed (HoldID:" + h.getId() + "), position " + lib.getHolds(b.getId()).size() + " in the queue.");
+    }
+
+    private static void cancelHoldFlow(Library lib) {
+        int holdId = readInt("Hold ID: ", 1);
+        System.out.println(lib.cancelHold(holdId) ? "Hold cancelled." : "No such hold.");
     }
 
     private static void returnBookFlow(Library lib) {
-        int issuedId = readInt("Issued record ID: ", 1);
-        boolean ok = lib.returnBook(issuedId);
-        System.out.println(ok ? "Returned." : "Return failed or already returned.");
-        lib.saveToFile(DATA_FILE);
+        int[] ids = readIds("Issued record ID(s), comma-separated: ");
+        if (ids.length == 1) {
+            boolean ok = lib.returnBook(ids[0]);
+            System.out.println(ok ? "Returned." : "Return failed or already returned.");
+            return;
+        }
+        boolean ok = lib.returnBooks(ids);
+        System.out.println(ok ? "Returned " + ids.length + " books." : "Return failed; nothing was returned.");
     }
 
     private static void listIssued(Library lib) {
-        List<IssuedRecord> list = lib.getIssuedRecords();
-        if (list.isEmpty()) System.out.println("No issued records.");
-        else list.forEach(System.out::println);
+        System.out.print("Show (1) all loans or (2) open ones only? ");
+        boolean open = "2".equals(sc.nextLine().trim());
+        listPaged(open ? "No open loans." : "No issued records.",
+                (after, n) -> lib.pageIssued(after, n, open ? r -> r.getReturnDate() == null : null),
+                IssuedRecord::getId, RowFormatter::loan);
+    }
+
+    private interface Pager<T> { List<T> page(int afterId, int limit); }
+
+    // Prints PAGE_SIZE rows at a time, asking before each further page; only the rows shown
+    // are fetched and formatted.
+    private static <T> void listPaged(String none, Pager<T> pager, ToIntFunction<T> idOf, BiConsumer<RowFormatter, T> row) {
+        RowFormatter f = new RowFormatter(System.out);
+        int after = Integer.MIN_VALUE;
+        boolean any = false;
+        while (true) {
+            List<T> page = pager.page(after, PAGE_SIZE);
+            for (T v : page) row.accept(f, v);
+            f.flush();
+            any |= !page.isEmpty();
+            if (!any) System.out.println(none);
+            if (page.size() < PAGE_SIZE) return;
+            System.out.print("-- Enter for more, q to stop: ");
+            if (sc.nextLine().trim().equalsIgnoreCase("q")) return;
+            after = idOf.applyAsInt(page.get(page.size() - 1));
+        }
+    }
+
+    private static void userLoansFlow(Library lib) {
+        int userId = readInt("User ID: ", 1);
+        User u = lib.findUserById(userId);
+        if (u == null) {
+            System.out.println("No such user.");
+            return;
+        }
+        List<IssuedRecord> loans = lib.getLoansForUser(userId);
+        int max = lib.getMaxOpenLoans();
+        System.out.println(u.getName() + " has " + loans.size() + (max > 0 ? " of " + max : "") + " loans open.");
+        for (IssuedRecord r : loans) {
+            Book b = lib.findBookById(r.getBookId());
+            System.out.printf("IssuedID:%d | Book:%s | Due:%s%n", r.getId(), b == null ? "?" : b.getTitle(), r.getDueDate());
+        }
+        for (Hold h : lib.getHoldsForUser(userId)) {
+            Book b = lib.findBookById(h.getBookId());
+            int pos = lib.getHolds(h.getBookId()).indexOf(h) + 1;
+            System.out.printf("HoldID:%d | Book:%s | Position:%d | Placed:%s%n", h.getId(), b == null ? "?" : b.getTitle(), pos, h.getPlacedDate());
+        }
+    }
+
+    private static void circulationFlow(Library lib) {
+        CirculationStats st = lib.getStats();
+        System.out.println("Loans ever issued: " + st.getTotalIssues());
+        System.out.println("Most borrowed books:");
+        for (CirculationStats.Ranked r : st.getTopBooks(REPORT_TOP)) {
+            Book b = lib.findBookById(r.id());
+            System.out.printf("BookID:%d | %s | Issues:%d%n", r.id(), b == null ? "?" : b.getTitle(), r.count());
+        }
+        System.out.println("Most active borrowers:");
+        for (CirculationStats.Ranked r : st.getTopUsers(REPORT_TOP)) {
+            User u = lib.findUserById(r.id());
+            System.out.printf("UserID:%d | %s | Issues:%d%n", r.id(), u == null ? "?" : u.getName(), r.count());
+        }
+        LocalDate to = LocalDate.now(), from = to.minusDays(REPORT_DAYS - 1);
+        Map<LocalDate, Long> issues = st.getDailyIssues(from, to), returns = st.getDailyReturns(from, to);
+        System.out.println("Last " + REPORT_DAYS + " days:");
+        for (LocalDate d = from; !d.isAfter(to); d = d.plusDays(1)) {
+            System.out.printf("%s | Issued:%d | Returned:%d%n", d, issues.getOrDefault(d, 0L), returns.getOrDefault(d, 0L));
+        }
     }
 
     private static void listOverdue(Library lib) {
@@ -140,6 +276,53 @@ public class Main {
         });
     }
 
+    private static void loanHistoryFlow(Library lib) {
+        System.out.print("Month (YYYY-MM): ");
+        YearMonth month = YearMonth.parse(sc.nextLine().trim());
+        List<IssuedRecord> list = lib.getLoanHistory(month, month);
+        if (list.isEmpty()) System.out.println("No returned loans in " + month + ".");
+        else list.forEach(System.out::println);
+    }
+
+    private static void importFlow(Library lib) {
+        System.out.print("Import (books/users/loans): ");
+        String kind = sc.nextLine().trim().toLowerCase();
+        System.out.print("File (.csv or .jsonl): ");
+        String file = sc.nextLine().trim();
+        try {
+            int n = BulkImporter.importFile(lib, kind, Paths.get(file));
+            System.out.println("Imported " + n + " " + kind + ".");
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Import failed: " + e.getMessage());
+        }
+    }
+
+    private static void metricsFlow(Library lib) throws IOException {
+        if (!(lib.getMetrics() instanceof MetricsRegistry m)) {
+            System.out.println("Metrics are disabled.");
+            return;
+        }
+        System.out.print("Format (json/prometheus): ");
+        Writer out = new OutputStreamWriter(System.out);
+        if (sc.nextLine().trim().toLowerCase().startsWith("p")) m.writePrometheus(out);
+        else m.writeJson(out);
+        out.flush();
+    }
+
+    private static int[] readIds(String prompt) {
+        while (true) {
+            System.out.print(prompt);
+            try {
+                int[] ids = Arrays.stream(sc.nextLine().split(",")).map(String::trim).filter(t -> !t.isEmpty())
+                        .mapToInt(Integer::parseInt).toArray();
+                if (ids.length > 0 && Arrays.stream(ids).allMatch(id -> id >= 1)) return ids;
+                System.out.println("Enter ids >= 1");
+            } catch (NumberFormatException e) {
+                System.out.println("Invalid number.");
+            }
+        }
+    }
+
     private static int readInt(String prompt, int min) {
         while (true) {
             System.out.print(prompt);
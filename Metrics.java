@@ -0,0 +1,27 @@
+// Where Library reports what it does. Callers resolve a handle once per name and keep it, so the
+// hot path is a virtual call on a field, and NOOP's handles neither read the clock nor touch
+// shared memory: disabled metrics cost a call that the JIT inlines away.
+public interface Metrics {
+    Counter counter(String name);
+    Timer timer(String name);
+
+    interface Counter {
+        void add(long n);
+    }
+
+    // long t = timer.start(); ...; timer.stop(t);
+    interface Timer {
+        long start();
+        void stop(long start);
+    }
+
+    Metrics NOOP = new Metrics() {
+        private final Counter counter = n -> { };
+        private final Timer timer = new Timer() {
+            public long start() { return 0; }
+            public void stop(long start) { }
+        };
+        public Counter counter(String name) { return counter; }
+        public Timer timer(String name) { return timer; }
+    };
+}
@@ -0,0 +1,101 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// In-memory Metrics: LongAdder counters and LatencyHistogram timers (in nanoseconds), dumped
+// as JSON or in the Prometheus text exposition format. Names are free-form ("issueBook",
+// "checkpoint.fsync"); the Prometheus dump turns timers into one summary labelled by op, and
+// leaves out timers that have nothing recorded yet.
+public class MetricsRegistry implements Metrics {
+    private static final double[] QUANTILES = { 50, 90, 99, 99.9 };
+    private static final String[] QUANTILE_LABELS = { "0.5", "0.9", "0.99", "0.999" };
+
+    private final Map<String, CounterImpl> counters = new ConcurrentHashMap<>();
+    private final Map<String, TimerImpl> timers = new ConcurrentHashMap<>();
+
+    public Counter counter(String name) { return counters.computeIfAbsent(name, n -> new CounterImpl()); }
+    public Timer timer(String name) { return timers.computeIfAbsent(name, n -> new TimerImpl()); }
+
+    public long count(String counter) {
+        CounterImpl c = counters.get(counter);
+        return c == null ? 0 : c.sum.sum();
+    }
+
+    public LatencyHistogram histogram(String timer) {
+        TimerImpl t = timers.get(timer);
+        return t == null ? null : t.histogram;
+    }
+
+    // {"counters":{"bytesWritten":1234,...},
+    //  "timers":{"issueBook":{"count":10,"sumNanos":..,"p50Nanos":..,..,"maxNanos":..},...}}
+    public void writeJson(Writer writer) throws IOException {
+        JsonWriter out = new JsonWriter(writer);
+        out.beginObject();
+        out.name("counters").beginObject();
+        for (Map.Entry<String, CounterImpl> e : new TreeMap<>(counters).entrySet()) out.name(e.getKey()).value(e.getValue().sum.sum());
+        out.endObject();
+        out.name("timers").beginObject();
+        for (Map.Entry<String, TimerImpl> e : new TreeMap<>(timers).entrySet()) {
+            LatencyHistogram h = e.getValue().histogram;
+            if (h.count() == 0) continue;
+            out.name(e.getKey()).beginObject();
+            out.name("count").value(h.count());
+            out.name("sumNanos").value(h.sum());
+            for (double q : QUANTILES) out.name("p" + label(q).replace(".", "") + "Nanos").value(h.valueAt(q));
+            out.name("maxNanos").value(h.max());
+            out.endObject();
+        }
+        out.endObject();
+        out.endObject().newline();
+        out.flush();
+    }
+
+    public void writePrometheus(Writer out) throws IOException {
+        for (Map.Entry<String, CounterImpl> e : new TreeMap<>(counters).entrySet()) {
+            String name = "library_" + snake(e.getKey()) + "_total";
+            out.write("# TYPE " + name + " counter\n");
+            out.write(name + " " + e.getValue().sum.sum() + "\n");
+        }
+        if (!timers.isEmpty()) out.write("# TYPE library_op_seconds summary\n");
+        for (Map.Entry<String, TimerImpl> e : new TreeMap<>(timers).entrySet()) {
+            LatencyHistogram h = e.getValue().histogram;
+            if (h.count() == 0) continue; // resolved but never run
+            String op = "op=\"" + e.getKey() + "\"";
+            for (int q = 0; q < QUANTILES.length; q++) {
+                out.write("library_op_seconds{" + op + ",quantile=\"" + QUANTILE_LABELS[q] + "\"} " + seconds(h.valueAt(QUANTILES[q])) + "\n");
+            }
+            out.write("library_op_seconds_sum{" + op + "} " + seconds(h.sum()) + "\n");
+            out.write("library_op_seconds_count{" + op + "} " + h.count() + "\n");
+        }
+        out.flush();
+    }
+
+    private static String label(double q) { return q == Math.rint(q) ? Long.toString((long) q) : Double.toString(q); }
+
+    private static String seconds(long nanos) { return Double.toString(nanos / 1e9); }
+
+    // bytesWritten -> bytes_written, journal.fsync -> journal_fsync
+    private static String snake(String name) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (Character.isUpperCase(c)) sb.append('_').append(Character.toLowerCase(c));
+            else sb.append(Character.isLetterOrDigit(c) ? c : '_');
+        }
+        return sb.toString();
+    }
+
+    private static final class CounterImpl implements Counter {
+        final LongAdder sum = new LongAdder();
+        public void add(long n) { sum.add(n); }
+    }
+
+    private static final class TimerImpl implements Timer {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        public long start() { return System.nanoTime(); }
+        public void stop(long start) { histogram.record(System.nanoTime() - start); }
+    }
+}
@@ -0,0 +1,140 @@
+import java.io.IOException;
+import java.io.StringWriter;
+import java.time.LocalDate;
+import java.util.List;
+
+// The record format shared by the journal and the change feed: one compact JSON object per
+// line, one per mutation,
+//   {"op":"book","book":{...}}   {"op":"user","user":{...}}
+//   {"op":"issue","record":{...}}   {"op":"return","id":7,"returnDate":"2024-05-01"}
+//   {"op":"hold","hold":{...}}   {"op":"unhold","id":3}   {"op":"fill","id":3,"record":{...}}
+// Each log method renders its records into `buf` and hands them to emit() whole, under the
+// object's lock, so records from concurrent threads never interleave. Library.applyRecord
+// reads them back.
+public abstract class RecordLog {
+    static final String OP_BOOK = "book";
+    static final String OP_USER = "user";
+    static final String OP_ISSUE = "issue";
+    static final String OP_RETURN = "return";
+    static final String OP_HOLD = "hold";
+    static final String OP_UNHOLD = "unhold";
+    static final String OP_FILL = "fill";
+
+    protected final StringWriter buf = new StringWriter();
+
+    public synchronized void logAddBook(Book b) throws IOException {
+        JsonWriter out = begin(OP_BOOK);
+        out.name(OP_BOOK);
+        b.writeJson(out);
+        end(out);
+    }
+
+    public synchronized void logAddUser(User u) throws IOException {
+        JsonWriter out = begin(OP_USER);
+        out.name(OP_USER);
+        u.writeJson(out);
+        end(out);
+    }
+
+    public synchronized void logIssue(IssuedRecord r) throws IOException {
+        JsonWriter out = begin(OP_ISSUE);
+        out.name("record");
+        r.writeJson(out);
+        end(out);
+    }
+
+    public synchronized void logReturn(int issuedId, LocalDate returnDate) throws IOException {
+        JsonWriter out = begin(OP_RETURN);
+        out.name("id").value(issuedId);
+        out.name("returnDate").value(returnDate);
+        end(out);
+    }
+
+    public synchronized void logHold(Hold h) throws IOException {
+        JsonWriter out = begin(OP_HOLD);
+        out.name(OP_HOLD);
+        h.writeJson(out);
+        end(out);
+    }
+
+    public synchronized void logUnhold(int holdId) throws IOException {
+        JsonWriter out = begin(OP_UNHOLD);
+        out.name("id").value(holdId);
+        end(out);
+    }
+
+    // A hold turned into a loan, as one record so replay never sees one without the other.
+    public synchronized void logFill(int holdId, IssuedRecord r) throws IOException {
+        JsonWriter out = begin(OP_FILL);
+        out.name("id").value(holdId);
+        out.name("record");
+        r.writeJson(out);
+        end(out);
+    }
+
+    // Bulk variants: the whole batch goes to emit() at once (for the journal, one write with at
+    // most one fsync), as the same per-record lines the single-record methods produce.
+    public synchronized void logAddBooks(List<Book> bs) throws IOException {
+        buf.getBuffer().setLength(0);
+        for (Book b : bs) {
+            JsonWriter out = record(OP_BOOK);
+            out.name(OP_BOOK);
+            b.writeJson(out);
+            out.endObject().newline();
+        }
+        emit(bs.size());
+    }
+
+    public synchronized void logAddUsers(List<User> us) throws IOException {
+        buf.getBuffer().setLength(0);
+        for (User u : us) {
+            JsonWriter out = record(OP_USER);
+            out.name(OP_USER);
+            u.writeJson(out);
+            out.endObject().newline();
+        }
+        emit(us.size());
+    }
+
+    public synchronized void logIssues(List<IssuedRecord> rs) throws IOException {
+        buf.getBuffer().setLength(0);
+        for (IssuedRecord r : rs) {
+            JsonWriter out = record(OP_ISSUE);
+            out.name("record");
+            r.writeJson(out);
+            out.endObject().newline();
+        }
+        emit(rs.size());
+    }
+
+    public synchronized void logReturns(List<IssuedRecord> rs, LocalDate returnDate) throws IOException {
+        buf.getBuffer().setLength(0);
+        for (IssuedRecord r : rs) {
+            JsonWriter out = record(OP_RETURN);
+            out.name("id").value(r.getId());
+            out.name("returnDate").value(returnDate);
+            out.endObject().newline();
+        }
+        emit(rs.size());
+    }
+
+    // Writes out the `records` newline-terminated records now in buf.
+    protected abstract void emit(int records) throws IOException;
+
+    private JsonWriter begin(String op) throws IOException {
+        buf.getBuffer().setLength(0);
+        return record(op);
+    }
+
+    private void end(JsonWriter out) throws IOException {
+        out.endObject().newline();
+        emit(1);
+    }
+
+    private JsonWriter record(String op) throws IOException {
+        JsonWriter out = new JsonWriter(buf, false);
+        out.beginObject();
+        out.name("op").value(op);
+        return out;
+    }
+}
@@ -0,0 +1,93 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+
+// Keeps a read-only Library in step with a primary from its change feed instead of re-copying
+// library.json. Bootstrap from a snapshot the primary wrote with its feed on (the snapshot
+// records the feed epoch and sequence number it reflects), then apply the feed lines after
+// that number in order. Lines at or below the applied number are skipped, so overlapping
+// batches are harmless; a gap or another epoch means changes were lost and the replica has
+// to bootstrap again.
+//
+//   java ReplicaApplier http://primary:8080 [pollMillis]
+public class ReplicaApplier {
+    private static final String SEQ_PREFIX = "{\"seq\":";
+
+    private final Library lib;
+
+    public ReplicaApplier(Reader snapshot) throws IOException {
+        lib = Library.fromJson(snapshot);
+        if (lib.getChangeEpoch() == 0) throw new IOException("snapshot was not taken with a change feed on");
+        lib.setReadOnly();
+    }
+
+    public Library getLibrary() { return lib; }
+    public long getEpoch() { return lib.getChangeEpoch(); }
+    public long getSeq() { return lib.getChangeSeq(); }
+
+    // Feed lines in order, as ChangeFeed.since returns them or GET /changes sends them; returns
+    // how many were new. Throws IllegalStateException on a gap.
+    public int apply(List<String> lines) throws IOException {
+        int applied = 0;
+        for (String line : lines) {
+            if (line.isBlank()) continue;
+            long seq = seqOf(line);
+            if (seq <= getSeq()) continue;
+            if (seq != getSeq() + 1) throw new IllegalStateException("missing changes " + (getSeq() + 1) + ".." + (seq - 1) + "; bootstrap again");
+            lib.applyChange(line);
+            applied++;
+        }
+        return applied;
+    }
+
+    private static long seqOf(String line) throws IOException {
+        if (!line.startsWith(SEQ_PREFIX)) throw new IOException("not a change feed line: " + line);
+        long seq = 0;
+        for (int i = SEQ_PREFIX.length(); i < line.length() && Character.isDigit(line.charAt(i)); i++) seq = seq * 10 + (line.charAt(i) - '0');
+        return seq;
+    }
+
+    // Follows a LibraryServer: GET /snapshot once, then GET /changes?since= every pollMillis,
+    // starting over from a snapshot if the primary restarts (new epoch) or the replica falls
+    // off the end of the feed (410).
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("usage: ReplicaApplier <primary url> [pollMillis]");
+            return;
+        }
+        String base = args[0].replaceAll("/+$", "");
+        long poll = args.length > 1 ? Long.parseLong(args[1]) : 1000;
+        HttpClient http = HttpClient.newHttpClient();
+        ReplicaApplier replica = null;
+        while (true) {
+            try {
+                if (replica == null) {
+                    HttpResponse<String> snap = http.send(HttpRequest.newBuilder(URI.create(base + "/snapshot")).build(), HttpResponse.BodyHandlers.ofString());
+                    if (snap.statusCode() != 200) throw new IOException("snapshot: HTTP " + snap.statusCode());
+                    replica = new ReplicaApplier(new StringReader(snap.body()));
+                    System.out.println("Bootstrapped at seq " + replica.getSeq() + ": " + replica.lib.getBooks().size() + " books");
+                }
+                HttpResponse<String> res = http.send(HttpRequest.newBuilder(URI.create(base + "/changes?since=" + replica.getSeq())).build(), HttpResponse.BodyHandlers.ofString());
+                String epoch = res.headers().firstValue("X-Change-Epoch").orElse("");
+                if (res.statusCode() == 410 || !epoch.equals(Long.toString(replica.getEpoch()))) {
+                    System.out.println("Feed moved on (epoch " + epoch + "); bootstrapping again");
+                    replica = null;
+                    continue;
+                }
+                if (res.statusCode() != 200) throw new IOException("changes: HTTP " + res.statusCode());
+                int n = replica.apply(res.body().lines().toList());
+                if (n > 0) System.out.println("Applied " + n + " changes, at seq " + replica.getSeq());
+                else Thread.sleep(poll);
+            } catch (IOException | IllegalStateException e) {
+                System.out.println("Replica sync failed: " + e.getMessage());
+                replica = null;
+                Thread.sleep(poll);
+            }
+        }
+    }
+}
@@ -0,0 +1,45 @@
+import java.io.PrintStream;
+
+// The one-line console rendering of books, users, loans and holds, built by appending fields rather
+// than through String.format (which parses its pattern on every row). A formatter collects a
+// page of rows in one builder, reused from page to page, and prints it in a single write, so
+// listing costs about the text shown. toString() on the models goes through the same code.
+public class RowFormatter {
+    private final PrintStream out;
+    private final StringBuilder sb = new StringBuilder(4096);
+
+    public RowFormatter(PrintStream out) { this.out = out; }
+
+    public RowFormatter book(Book b) { appendBook(sb, b).append('\n'); return this; }
+    public RowFormatter user(User u) { appendUser(sb, u).append('\n'); return this; }
+    public RowFormatter loan(IssuedRecord r) { appendLoan(sb, r).append('\n'); return this; }
+    public RowFormatter hold(Hold h) { appendHold(sb, h).append('\n'); return this; }
+
+    // Prints the rows collected since the last flush.
+    public void flush() {
+        out.append(sb);
+        out.flush();
+        sb.setLength(0);
+    }
+
+    static StringBuilder appendBook(StringBuilder sb, Book b) {
+        return sb.append("ID:").append(b.getId()).append(" | ").append(b.getTitle()).append(" by ").append(b.getAuthor())
+                .append(" | Avail:").append(b.getAvailableCopies()).append('/').append(b.getTotalCopies());
+    }
+
+    static StringBuilder appendUser(StringBuilder sb, User u) {
+        return sb.append("UserID:").append(u.getId()).append(" | ").append(u.getName())
+                .append(" | ").append(u.getEmail() == null ? "" : u.getEmail());
+    }
+
+    static StringBuilder appendLoan(StringBuilder sb, IssuedRecord r) {
+        sb.append("IssuedID:").append(r.getId()).append(" | BookID:").append(r.getBookId()).append(" | UserID:").append(r.getUserId())
+                .append(" | Issued:").append(r.getIssueDate()).append(" | Due:").append(r.getDueDate()).append(" | Returned:");
+        return r.getReturnDate() == null ? sb.append('-') : sb.append(r.getReturnDate());
+    }
+
+    static StringBuilder appendHold(StringBuilder sb, Hold h) {
+        return sb.append("HoldID:").append(h.getId()).append(" | BookID:").append(h.getBookId()).append(" | UserID:").append(h.getUserId())
+                .append(" | Placed:").append(h.getPlacedDate()).append(" | Days:").append(h.getDays());
+    }
+}
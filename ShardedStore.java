@@ -0,0 +1,384 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.regex.Pattern;
+
+// Library state as a directory of shards instead of one library.json, so a save rewrites only
+// the shards that changed and a load parses them side by side:
+//   <dir>/manifest.json                next ids, feed position, shard size, file of every shard
+//   <dir>/books-<k>.<gen>.jsonl        books with ids k*idsPerShard+1 .. (k+1)*idsPerShard
+//   <dir>/users-<k>.<gen>.jsonl        users, same ranges
+//   <dir>/issued-<yyyy-MM>.<gen>.jsonl loans issued in that month
+//   <dir>/holds.<gen>.jsonl            every hold queue, in queue order
+// one compact object per line. A save writes the changed shards to files named with a new
+// generation, fsyncs them and then renames a new manifest into place: that rename is the
+// commit, so a crash at any point leaves the old or the new state whole. Files the manifest
+// no longer names are deleted after it.
+//
+// Library marks shards dirty as it changes them and takes the dirty set with each save; a
+// store just opened on a directory it didn't load from starts out all dirty.
+public class ShardedStore {
+    public static final String SUFFIX = ".shards";
+    private static final String MANIFEST = "manifest.json";
+    private static final String EXT = ".jsonl";
+    // what this store names its shard files; anything else in the directory is left alone
+    private static final Pattern SHARD_FILE = Pattern.compile("(books-\\d+|users-\\d+|issued-\\d{4}-\\d{2}|holds)\\.\\d+\\.jsonl");
+    private static final int VERSION = 1;
+    // ids per book or user shard for new stores; an existing one keeps what its manifest says
+    private static final int DEFAULT_IDS_PER_SHARD = Integer.getInteger("library.shardSize", 10_000);
+
+    // What the manifest holds besides the shard list.
+    public record Header(int nextBookId, int nextUserId, int nextIssuedId, int nextHoldId, long changeEpoch, long changeSeq) {}
+
+    // Shards changed since the last save: book and user shard numbers, loan months as
+    // year * 12 + month - 1. `all` covers every shard, present or not.
+    public static final class Dirty {
+        final boolean all;
+        final Set<Integer> books = ConcurrentHashMap.newKeySet();
+        final Set<Integer> users = ConcurrentHashMap.newKeySet();
+        final Set<Integer> months = ConcurrentHashMap.newKeySet();
+        volatile boolean holds;
+
+        Dirty(boolean all) { this.all = all; }
+
+        public boolean all() { return all; }
+        public Set<Integer> books() { return books; }
+        public Set<Integer> users() { return users; }
+        public Set<Integer> months() { return months; }
+        public boolean anyMonth() { return all || !months.isEmpty(); }
+        public boolean month(int key) { return all || months.contains(key); }
+        public boolean holds() { return all || holds; }
+    }
+
+    private final Path dir;
+    private final int idsPerShard;
+    private volatile Dirty dirty;
+    // guarded by this: the committed manifest
+    private long generation;
+    private final TreeMap<Integer, String> bookFiles = new TreeMap<>(), userFiles = new TreeMap<>(), monthFiles = new TreeMap<>();
+    private String holdsFile;
+    private Header header;
+
+    private ShardedStore(Path dir, int idsPerShard, boolean all) {
+        this.dir = dir;
+        this.idsPerShard = idsPerShard;
+        this.dirty = new Dirty(all);
+    }
+
+    // Paths ending in .shards, or naming a directory that already holds a manifest, get this
+    // layout. Any other directory is not taken for a store: saving one would delete the
+    // unreferenced .jsonl files of whoever owns it.
+    public static boolean isShardedPath(Path p) {
+        return p.getFileName().toString().endsWith(SUFFIX) || Files.isRegularFile(p.resolve(MANIFEST));
+    }
+
+    // The store in `dir` as its manifest describes it, clean; with no manifest yet, an empty
+    // store that is all dirty.
+    public static ShardedStore open(Path dir) throws IOException {
+        Path m = dir.resolve(MANIFEST);
+        if (!Files.exists(m)) return new ShardedStore(dir, DEFAULT_IDS_PER_SHARD, true);
+        try (JsonReader in = new JsonReader(Files.newBufferedReader(m))) {
+            int version = 0, size = DEFAULT_IDS_PER_SHARD, book = 1, user = 1, issued = 1, hold = 1;
+            long gen = 0, epoch = 0, seq = 0;
+            List<String> files = new ArrayList<>();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "version" -> version = in.nextInt();
+                    case "idsPerShard" -> size = in.nextInt();
+                    case "generation" -> gen = in.nextLong();
+                    case "nextBookId" -> book = in.nextInt();
+                    case "nextUserId" -> user = in.nextInt();
+                    case "nextIssuedId" -> issued = in.nextInt();
+                    case "nextHoldId" -> hold = in.nextInt();
+                    case "changeEpoch" -> epoch = in.nextLong();
+                    case "changeSeq" -> seq = in.nextLong();
+                    case "shards" -> {
+                        in.beginArray();
+                        while (in.hasNext()) files.add(in.nextString());
+                        in.endArray();
+                    }
+                    default -> in.skipValue();
+                }
+            }
+            in.endObject();
+            if (version < 1 || version > VERSION) throw new IOException(m + ": unsupported version " + version);
+            if (size < 1) throw new IOException(m + ": bad idsPerShard " + size);
+            ShardedStore s = new ShardedStore(dir, size, false);
+            s.generation = gen;
+            s.header = new Header(book, user, issued, hold, epoch, seq);
+            for (String f : files) s.register(f);
+            return s;
+        }
+    }
+
+    public Path getDirectory() { return dir; }
+
+    public int bookShard(int id) { return (id - 1) / idsPerShard; }
+    public int userShard(int id) { return (id - 1) / idsPerShard; }
+    public static int monthKey(LocalDate d) { return d.getYear() * 12 + d.getMonthValue() - 1; }
+
+    // Ids [first, last] of book or user shard k.
+    public int firstId(int k) { return k * idsPerShard + 1; }
+    public int lastId(int k) { return (k + 1) * idsPerShard; }
+
+    // --- dirty tracking; called with the Library's gate held for reading ---
+
+    public void markBook(int id) {
+        Dirty d = dirty;
+        if (!d.all) d.books.add(bookShard(id));
+    }
+
+    public void markUser(int id) {
+        Dirty d = dirty;
+        if (!d.all) d.users.add(userShard(id));
+    }
+
+    // A loan's month shard and the shard of the book whose copies it moved.
+    public void markLoan(IssuedRecord r) {
+        Dirty d = dirty;
+        if (d.all) return;
+        d.months.add(monthKey(r.getIssueDate()));
+        d.books.add(bookShard(r.getBookId()));
+    }
+
+    public void markHolds() {
+        dirty.holds = true;
+    }
+
+    // Hands the dirty set to a save and starts a new one; with the gate held exclusively.
+    public Dirty takeDirty() {
+        Dirty d = dirty;
+        dirty = new Dirty(false);
+        return d;
+    }
+
+    // For a Library that didn't come from this directory: the next save writes everything.
+    public void markAll() {
+        dirty = new Dirty(true);
+    }
+
+    // A save that failed gives its dirty set back, so the next one covers it.
+    public void putBack(Dirty d) {
+        if (d.all) {
+            markAll();
+            return;
+        }
+        Dirty now = dirty;
+        if (now.all) return;
+        now.books.addAll(d.books);
+        now.users.addAll(d.users);
+        now.months.addAll(d.months);
+        if (d.holds) now.holds = true;
+    }
+
+    // --- save ---
+
+    // Writes the shards in `d` from the records given for them (a dirty shard with none left
+    // is dropped), then commits the manifest. holds is only read if d.holds(). Returns the
+    // bytes written.
+    public synchronized long write(Dirty d, Header h, Map<Integer, List<Book>> books, Map<Integer, List<User>> users,
+                                   Map<Integer, List<IssuedRecord>> issued, List<Hold> holds) throws IOException {
+        Files.createDirectories(dir);
+        long gen = generation + 1, bytes = 0;
+        TreeMap<Integer, String> bf = new TreeMap<>(bookFiles), uf = new TreeMap<>(userFiles), mf = new TreeMap<>(monthFiles);
+        String hf = holdsFile;
+        if (d.all) {
+            bf.clear();
+            uf.clear();
+            mf.clear();
+        }
+        for (Integer k : d.all ? books.keySet() : d.books) {
+            bytes += shard(bf, k, "books-" + k, gen, books.get(k), (out, b) -> b.writeJson(out));
+        }
+        for (Integer k : d.all ? users.keySet() : d.users) {
+            bytes += shard(uf, k, "users-" + k, gen, users.get(k), (out, u) -> u.writeJson(out));
+        }
+        for (Integer k : d.all ? issued.keySet() : d.months) {
+            bytes += shard(mf, k, "issued-" + YearMonth.of(k / 12, k % 12 + 1), gen, issued.get(k), (out, r) -> r.writeJson(out));
+        }
+        if (d.holds()) {
+            hf = null;
+            if (!holds.isEmpty()) {
+                hf = "holds." + gen + EXT;
+                bytes += writeLines(dir.resolve(hf), holds, (out, x) -> x.writeJson(out));
+            }
+        }
+
+        List<String> files = new ArrayList<>(bf.values());
+        files.addAll(uf.values());
+        files.addAll(mf.values());
+        if (hf != null) files.add(hf);
+        bytes += writeManifest(gen, h, files);
+
+        generation = gen;
+        header = h;
+        bookFiles.clear();
+        bookFiles.putAll(bf);
+        userFiles.clear();
+        userFiles.putAll(uf);
+        monthFiles.clear();
+        monthFiles.putAll(mf);
+        holdsFile = hf;
+        deleteUnreferenced(new HashSet<>(files));
+        return bytes;
+    }
+
+    private interface LineWriter<T> { void write(JsonWriter out, T item) throws IOException; }
+
+    private <T> long shard(TreeMap<Integer, String> files, int key, String name, long gen, List<T> items, LineWriter<T> w) throws IOException {
+        if (items == null || items.isEmpty()) {
+            files.remove(key);
+            return 0;
+        }
+        String file = name + "." + gen + EXT;
+        files.put(key, file);
+        return writeLines(dir.resolve(file), items, w);
+    }
+
+    private static <T> long writeLines(Path file, List<T> items, LineWriter<T> w) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            Writer out = Channels.newWriter(ch, StandardCharsets.UTF_8);
+            JsonWriter json = new JsonWriter(out, false);
+            for (T item : items) {
+                w.write(json, item);
+                out.write('\n');
+            }
+            out.flush();
+            ch.force(true);
+            return ch.size();
+        }
+    }
+
+    private long writeManifest(long gen, Header h, List<String> files) throws IOException {
+        Path m = dir.resolve(MANIFEST), tmp = dir.resolve(MANIFEST + ".tmp");
+        long size;
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            Writer w = Channels.newWriter(ch, StandardCharsets.UTF_8);
+            JsonWriter out = new JsonWriter(w);
+            out.beginObject();
+            out.name("version").value(VERSION);
+            out.name("idsPerShard").value(idsPerShard);
+            out.name("generation").value(gen);
+            out.name("nextBookId").value(h.nextBookId());
+            out.name("nextUserId").value(h.nextUserId());
+            out.name("nextIssuedId").value(h.nextIssuedId());
+            out.name("nextHoldId").value(h.nextHoldId());
+            if (h.changeEpoch() != 0) {
+                out.name("changeEpoch").value(h.changeEpoch());
+                out.name("changeSeq").value(h.changeSeq());
+            }
+            out.name("shards").beginArray();
+            for (String f : files) out.value(f);
+            out.endArray();
+            out.endObject().newline();
+            out.flush();
+            ch.force(true);
+            size = ch.size();
+        }
+        Files.move(tmp, m, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return size;
+    }
+
+    // Shards of older generations, and any left by a save that never committed.
+    private void deleteUnreferenced(Set<String> keep) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + EXT)) {
+            for (Path p : files) {
+                String name = p.getFileName().toString();
+                if (SHARD_FILE.matcher(name).matches() && !keep.contains(name)) Files.deleteIfExists(p);
+            }
+        }
+    }
+
+    // --- load ---
+
+    // Reads every shard the manifest names, parsing them as separate tasks on `pool`, and
+    // hands the records to `sink` table by table in shard order. Returns the header.
+    public Header read(BinarySnapshot.Sink sink, ForkJoinPool pool) throws IOException {
+        List<String> books, users, months;
+        String holds;
+        Header h;
+        synchronized (this) {
+            books = new ArrayList<>(bookFiles.values());
+            users = new ArrayList<>(userFiles.values());
+            months = new ArrayList<>(monthFiles.values());
+            holds = holdsFile;
+            h = header != null ? header : new Header(1, 1, 1, 1, 0, 0);
+        }
+        List<ForkJoinTask<List<Book>>> bs = parse(pool, books, Book::readJson);
+        List<ForkJoinTask<List<User>>> us = parse(pool, users, User::readJson);
+        List<ForkJoinTask<List<IssuedRecord>>> rs = parse(pool, months, IssuedRecord::readJson);
+        List<ForkJoinTask<List<Hold>>> hs = parse(pool, holds == null ? List.of() : List.of(holds), Hold::readJson);
+        try {
+            for (var t : bs) for (Book b : t.join()) sink.book(b);
+            for (var t : us) for (User u : t.join()) sink.user(u);
+            for (var t : rs) for (IssuedRecord r : t.join()) sink.issued(r);
+            for (var t : hs) for (Hold x : t.join()) sink.hold(x);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        sink.nextIds(h.nextBookId(), h.nextUserId(), h.nextIssuedId());
+        sink.nextHoldId(h.nextHoldId());
+        return h;
+    }
+
+    private interface Parser<T> { T read(JsonReader in) throws IOException; }
+
+    private <T> List<ForkJoinTask<List<T>>> parse(ForkJoinPool pool, List<String> files, Parser<T> parser) {
+        List<ForkJoinTask<List<T>>> out = new ArrayList<>(files.size());
+        for (String f : files) {
+            Path p = dir.resolve(f);
+            out.add(pool.submit(() -> {
+                List<T> items = new ArrayList<>();
+                try (BufferedReader r = Files.newBufferedReader(p)) {
+                    JsonReader in = new JsonReader(r);
+                    while (in.peek() != JsonReader.Token.END) {
+                        T item = parser.read(in);
+                        if (item != null) items.add(item);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(new IOException(p + ": " + e.getMessage(), e));
+                }
+                return items;
+            }));
+        }
+        return out;
+    }
+
+    // Files are named <shard>.<generation>.jsonl.
+    private void register(String file) throws IOException {
+        int dot = file.indexOf('.');
+        if (dot < 0 || !file.endsWith(EXT)) throw new IOException("bad shard file name " + file);
+        String shard = file.substring(0, dot);
+        try {
+            if (shard.equals("holds")) holdsFile = file;
+            else if (shard.startsWith("books-")) bookFiles.put(Integer.parseInt(shard.substring(6)), file);
+            else if (shard.startsWith("users-")) userFiles.put(Integer.parseInt(shard.substring(6)), file);
+            else if (shard.startsWith("issued-")) {
+                monthFiles.put(monthKey(YearMonth.parse(shard.substring(7)).atDay(1)), file);
+            } else throw new IOException("bad shard file name " + file);
+        } catch (RuntimeException e) {
+            throw new IOException("bad shard file name " + file);
+        }
+    }
+}
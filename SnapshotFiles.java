@@ -0,0 +1,109 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32C;
+
+// Single-file snapshots (library.json, *.bin) end with a footer line
+//   {"snapshotLength":123456,"crc32c":"1a2b3c4d"}
+// giving the byte count before it and their CRC-32C, so a load can tell a complete file from
+// a truncated or damaged one by reading it once, without parsing it. For JSON the footer is a
+// second JSON text after the snapshot object; readers of the first one never get to it.
+// The snapshots replaced by the last few saves are kept as <name>.1 (newest) .. <name>.N.
+public class SnapshotFiles {
+    private static final Pattern FOOTER = Pattern.compile("\\{\"snapshotLength\":(\\d{1,18}),\"crc32c\":\"([0-9a-f]{8})\"}");
+    private static final String FOOTER_START = "{\"snapshotLength\":";
+    // longest possible footer line, newline included
+    private static final int FOOTER_MAX = 64;
+
+    public enum Status { VALID, NO_FOOTER, DAMAGED }
+
+    public record Check(Status status, String problem) {}
+
+    // lineBytes: the footer's own length, newline included
+    private record Footer(long length, int crc, int lineBytes) {}
+
+    // The k-th newest previous snapshot of p.
+    public static Path previous(Path p, int k) {
+        return p.resolveSibling(p.getFileName() + "." + k);
+    }
+
+    // Appends the footer for everything written to ch so far; crc has seen exactly those bytes.
+    public static void writeFooter(FileChannel ch, CRC32C crc) throws IOException {
+        String line = String.format("{\"snapshotLength\":%d,\"crc32c\":\"%08x\"}\n", ch.position(), (int) crc.getValue());
+        ByteBuffer b = ByteBuffer.wrap(line.getBytes(StandardCharsets.US_ASCII));
+        while (b.hasRemaining()) ch.write(b);
+    }
+
+    // Bytes of the snapshot proper: up to the footer if there is a well-formed one.
+    public static long payloadSize(FileChannel ch) throws IOException {
+        Footer f = readFooter(ch);
+        long size = ch.size();
+        return f != null && f.length() == size - f.lineBytes() ? f.length() : size;
+    }
+
+    // Checks the footer against the file: the length first, then the checksum over one read.
+    // NO_FOOTER is a file written before footers existed, or one cut short anywhere before
+    // the end of its footer; only parsing it can tell which.
+    public static Check verify(Path p) throws IOException {
+        try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ)) {
+            Footer f = readFooter(ch);
+            if (f == null) return new Check(Status.NO_FOOTER, "no checksum footer");
+            long size = ch.size() - f.lineBytes();
+            if (f.length() != size) return new Check(Status.DAMAGED, "footer says " + f.length() + " bytes precede it, but " + size + " do");
+            CRC32C crc = new CRC32C();
+            ByteBuffer buf = ByteBuffer.allocateDirect(1 << 16);
+            for (long pos = 0; pos < f.length(); ) {
+                buf.clear().limit((int) Math.min(buf.capacity(), f.length() - pos));
+                int n = ch.read(buf, pos);
+                if (n < 0) return new Check(Status.DAMAGED, "file ends before its footer says");
+                buf.flip();
+                crc.update(buf);
+                pos += n;
+            }
+            if ((int) crc.getValue() != f.crc()) return new Check(Status.DAMAGED, "checksum mismatch");
+            return new Check(Status.VALID, null);
+        }
+    }
+
+    // Makes room for the snapshot about to replace p: shifts p.1 .. p.(keep-1) up one, drops
+    // p.keep, and makes p.1 a second link to p (a copy where links aren't supported), so p
+    // itself stays in place until the caller renames the new one over it.
+    public static void rotate(Path p, int keep) throws IOException {
+        if (keep <= 0 || !Files.exists(p)) return;
+        Files.deleteIfExists(previous(p, keep));
+        for (int k = keep - 1; k >= 1; k--) {
+            Path from = previous(p, k);
+            if (Files.exists(from)) Files.move(from, previous(p, k + 1), StandardCopyOption.ATOMIC_MOVE);
+        }
+        Path first = previous(p, 1);
+        try {
+            Files.createLink(first, p);
+        } catch (UnsupportedOperationException | IOException e) {
+            Files.copy(p, first, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    // The footer, if the file ends with one.
+    private static Footer readFooter(FileChannel ch) throws IOException {
+        long size = ch.size();
+        int n = (int) Math.min(size, FOOTER_MAX);
+        ByteBuffer b = ByteBuffer.allocate(n);
+        while (b.hasRemaining()) if (ch.read(b, size - n + b.position()) < 0) return null;
+        byte[] tail = b.array();
+        if (n == 0 || tail[n - 1] != '\n') return null;
+        // ISO-8859-1 keeps one char per byte; a binary payload may end in anything, '\n' included
+        String s = new String(tail, 0, n - 1, StandardCharsets.ISO_8859_1);
+        int start = s.lastIndexOf(FOOTER_START);
+        if (start < 0) return null;
+        Matcher m = FOOTER.matcher(s.substring(start));
+        if (!m.matches()) return null;
+        return new Footer(Long.parseLong(m.group(1)), Integer.parseUnsignedInt(m.group(2), 16), n - start);
+    }
+}
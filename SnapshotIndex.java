@@ -0,0 +1,270 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+// Where each book and user sits in a library.json, by id, so Library.openLazy can read one
+// with a single positional read instead of parsing the file. Built by one pass over the bytes
+// that tracks only strings, nesting and each element's "id" member (on JsonSections' cursor);
+// kept next to the snapshot as <name>.idx and reused as long as the snapshot's size,
+// modification time and a checksum of its first and last bytes still match. The tail of a
+// footed snapshot is its whole-file CRC (SnapshotFiles), so for those the check covers every
+// byte; a rewrite of a footless file in the same millisecond that keeps its size, head and
+// tail is what gets through.
+public class SnapshotIndex {
+    private static final int MAGIC = 0x4c494458; // "LIDX"
+    private static final int VERSION = 2;
+    // bytes at each end of the snapshot that go into its fingerprint
+    private static final int FINGERPRINT_BYTES = 1 << 16;
+
+    // [start, end) of a top-level value, in bytes.
+    public record Range(long start, long end) {}
+
+    // One array's elements sorted by id: element i is bytes [starts[i], starts[i] + lengths[i]).
+    // Duplicate ids keep their first occurrence, as fromJson does; elements without an id are
+    // left out, as Book/User.readJson drop them.
+    public record Section(int[] ids, long[] starts, int[] lengths) {
+        public int size() { return ids.length; }
+
+        // Index of id, or -(insertion point) - 1 as Arrays.binarySearch.
+        public int find(int id) { return Arrays.binarySearch(ids, id); }
+    }
+
+    private final long fileSize, modified, fingerprint;
+    private final Map<String, Range> fields;
+    private final Section books, users;
+
+    private SnapshotIndex(long fileSize, long modified, long fingerprint, Map<String, Range> fields, Section books, Section users) {
+        this.fileSize = fileSize;
+        this.modified = modified;
+        this.fingerprint = fingerprint;
+        this.fields = fields;
+        this.books = books;
+        this.users = users;
+    }
+
+    public static Path pathFor(Path snapshot) {
+        return snapshot.resolveSibling(snapshot.getFileName() + ".idx");
+    }
+
+    public Section books() { return books; }
+    public Section users() { return users; }
+
+    // Top-level fields in no particular order, "books" and "users" included.
+    public Map<String, Range> fields() { return fields; }
+
+    // The saved index of the snapshot open as ch, or null if there is none or it describes
+    // another version of the file.
+    public static SnapshotIndex load(Path snapshot, FileChannel ch) {
+        Path p = pathFor(snapshot);
+        if (!Files.exists(p)) return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(p), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+            long size = in.readLong(), modified = in.readLong(), fingerprint = in.readLong();
+            if (size != ch.size() || modified != Files.getLastModifiedTime(snapshot).toMillis()) return null;
+            if (fingerprint != fingerprint(ch)) return null;
+            int n = in.readInt();
+            Map<String, Range> fields = new HashMap<>();
+            for (int i = 0; i < n; i++) fields.put(in.readUTF(), new Range(in.readLong(), in.readLong()));
+            return new SnapshotIndex(size, modified, fingerprint, fields, readSection(in), readSection(in));
+        } catch (IOException e) {
+            return null; // torn or foreign; building it again is always possible
+        }
+    }
+
+    // Scans the snapshot read through ch, which must be open on the file at snapshot.
+    public static SnapshotIndex build(Path snapshot, FileChannel ch) throws IOException {
+        long modified = Files.getLastModifiedTime(snapshot).toMillis();
+        Scan s = new Scan(ch);
+        Map<String, Range> fields = new HashMap<>();
+        Section books = new Section(new int[0], new long[0], new int[0]), users = books;
+        s.expect('{');
+        while (s.skipSpace() != '}') {
+            String name = s.name();
+            s.expect(':');
+            int c = s.skipSpace();
+            long start = s.pos;
+            boolean table = name.equals("books") || name.equals("users");
+            if (table && c == '[' && !fields.containsKey(name)) {
+                Section sec = s.section();
+                if (name.equals("books")) books = sec;
+                else users = sec;
+            } else {
+                s.skipValue();
+            }
+            fields.putIfAbsent(name, new Range(start, s.pos));
+        }
+        return new SnapshotIndex(ch.size(), modified, fingerprint(ch), fields, books, users);
+    }
+
+    // CRC-32C of the first and last FINGERPRINT_BYTES of the file.
+    private static long fingerprint(FileChannel ch) throws IOException {
+        long size = ch.size();
+        CRC32C crc = new CRC32C();
+        ByteBuffer b = ByteBuffer.allocate((int) Math.min(size, FINGERPRINT_BYTES));
+        for (long at : new long[]{0, size - b.capacity()}) {
+            b.clear();
+            while (b.hasRemaining()) if (ch.read(b, at + b.position()) < 0) throw new IOException("snapshot shrank while read");
+            crc.update(b.flip());
+        }
+        return crc.getValue();
+    }
+
+    // Writes the index next to its snapshot (temp file, then rename).
+    public void save(Path snapshot) throws IOException {
+        Path p = pathFor(snapshot);
+        Path tmp = p.resolveSibling(p.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(fileSize);
+            out.writeLong(modified);
+            out.writeLong(fingerprint);
+            out.writeInt(fields.size());
+            for (Map.Entry<String, Range> e : fields.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeLong(e.getValue().start());
+                out.writeLong(e.getValue().end());
+            }
+            writeSection(out, books);
+            writeSection(out, users);
+        }
+        Files.move(tmp, p, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // A JsonReader over bytes [r.start, r.end) of ch, read with positional reads so it leaves
+    // the channel's position alone.
+    public static JsonReader reader(FileChannel ch, Range r) {
+        return JsonSections.reader(ch, r.start(), r.end());
+    }
+
+    private static void writeSection(DataOutputStream out, Section s) throws IOException {
+        out.writeInt(s.size());
+        for (int id : s.ids()) out.writeInt(id);
+        for (long at : s.starts()) out.writeLong(at);
+        for (int len : s.lengths()) out.writeInt(len);
+    }
+
+    private static Section readSection(DataInputStream in) throws IOException {
+        int n = in.readInt();
+        if (n < 0) throw new EOFException();
+        int[] ids = new int[n], lengths = new int[n];
+        long[] starts = new long[n];
+        for (int i = 0; i < n; i++) ids[i] = in.readInt();
+        for (int i = 0; i < n; i++) starts[i] = in.readLong();
+        for (int i = 0; i < n; i++) lengths[i] = in.readInt();
+        return new Section(ids, starts, lengths);
+    }
+
+    // JsonSections' cursor, plus what it takes to pull the ids out of the books and users.
+    private static final class Scan extends JsonSections.Cursor {
+        Scan(FileChannel ch) { super(ch); }
+
+        Section section() throws IOException {
+            int n = 0;
+            long[] keys = new long[1024], starts = new long[1024];
+            int[] lengths = new int[1024];
+            next(); // '['
+            while (skipSpace() != ']') {
+                long start = pos;
+                long id = peek() == '{' ? element() : skipValueNoId();
+                if (id == Long.MIN_VALUE) continue;
+                if (n == keys.length) {
+                    keys = Arrays.copyOf(keys, n * 2);
+                    starts = Arrays.copyOf(starts, n * 2);
+                    lengths = Arrays.copyOf(lengths, n * 2);
+                }
+                if (pos - start > Integer.MAX_VALUE) throw error("element too large");
+                // id in the high half, file order in the low: sorting keeps the first of equal ids first
+                keys[n] = id << 32 | n;
+                starts[n] = start;
+                lengths[n] = (int) (pos - start);
+                n++;
+            }
+            next(); // ']'
+            long[] sorted = Arrays.copyOf(keys, n);
+            Arrays.sort(sorted);
+            int[] ids = new int[n], lens = new int[n];
+            long[] ats = new long[n];
+            int m = 0;
+            for (long k : sorted) {
+                int id = (int) (k >> 32), i = (int) k;
+                if (m > 0 && ids[m - 1] == id) continue;
+                ids[m] = id;
+                ats[m] = starts[i];
+                lens[m] = lengths[i];
+                m++;
+            }
+            return new Section(Arrays.copyOf(ids, m), Arrays.copyOf(ats, m), Arrays.copyOf(lens, m));
+        }
+
+        // Skips one object, returning the value of its top-level "id" member, or
+        // Long.MIN_VALUE if it has no numeric one.
+        long element() throws IOException {
+            long id = Long.MIN_VALUE;
+            int depth = 0;
+            do {
+                int c = next();
+                switch (c) {
+                    case '{', '[' -> depth++;
+                    case '}', ']' -> depth--;
+                    case '"' -> {
+                        boolean isId = restIs("id") && depth == 1;
+                        if (isId && skipSpace() == ':') {
+                            next();
+                            if (skipSpace() == '-' || (peek() >= '0' && peek() <= '9')) id = number();
+                        }
+                    }
+                    default -> { }
+                }
+            } while (depth > 0);
+            return id;
+        }
+
+        // Consumes the rest of a string whose opening quote was read; true if it spelled s.
+        boolean restIs(String s) throws IOException {
+            int i = 0, c;
+            boolean same = true;
+            while ((c = next()) != '"') {
+                if (c == '\\') {
+                    next();
+                    same = false;
+                } else if (i >= s.length() || c != s.charAt(i)) {
+                    same = false;
+                }
+                i++;
+            }
+            return same && i == s.length();
+        }
+
+        long number() throws IOException {
+            boolean neg = peek() == '-';
+            if (neg) next();
+            long v = 0;
+            int digits = 0;
+            while (peek() >= '0' && peek() <= '9') {
+                v = v * 10 + (next() - '0');
+                if (++digits > 10) throw error("id out of range");
+            }
+            v = neg ? -v : v;
+            if (digits == 0 || v < Integer.MIN_VALUE || v > Integer.MAX_VALUE) throw error("id out of range");
+            return v;
+        }
+
+        long skipValueNoId() throws IOException {
+            skipValue();
+            return Long.MIN_VALUE;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Canonical copies of strings that repeat across many records (author names above all), so a
+// catalog keeps one copy of each distinct value instead of a fresh one per parsed record. Each
+// value also gets a dense int index, for stores that keep references in primitive arrays.
+// Entries are never dropped: meant for reference data with a bounded set of values, not free text,
+// and owned by one Library so they go when it does.
+public class StringPool {
+
+    private final ConcurrentHashMap<String, Integer> index = new ConcurrentHashMap<>();
+    private volatile String[] values = new String[256];
+    private int size;
+
+    // The pooled copy equal to s (s itself the first time it is seen); null stays null.
+    public String canonical(String s) {
+        if (s == null) return null;
+        int i = intern(s); // before reading `values`, which intern may have grown
+        return values[i];
+    }
+
+    public int intern(String s) {
+        Integer i = index.get(s);
+        if (i != null) return i;
+        synchronized (this) {
+            i = index.get(s);
+            if (i != null) return i;
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size] = s;
+            index.put(s, size); // publishes the slot written above
+            return size++;
+        }
+    }
+
+    public String get(int i) { return values[i]; }
+
+    public int size() { return index.size(); }
+}
@@ -0,0 +1,25 @@
+import java.util.List;
+
+// What Library needs from an id-keyed entity store. IdTable is the general one; books can use
+// the denser CompactBookTable instead, and a lazily opened Library reads through LazyTable.
+public interface Table<T> {
+    T get(int id);
+
+    // Appends v; false if its id is already present (the first one wins).
+    boolean add(T v);
+
+    // Pre-sizes for `extra` more entries, so a bulk load appends without regrowing.
+    void ensureCapacity(int extra);
+
+    int size();
+
+    // Point-in-time list, safe to iterate while others keep writing.
+    List<T> snapshot();
+
+    // Live list without copying; only for callers that have already excluded writers.
+    List<T> view();
+
+    // Keyset paging: up to `limit` entries with ids above afterId, in id order. The last id of
+    // one page is the afterId of the next; costs about the page, not the table.
+    List<T> page(int afterId, int limit);
+}
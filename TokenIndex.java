@@ -0,0 +1,134 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Inverted index from normalized word tokens to sorted id lists. Tokens sit in a sorted map,
+// so a query word matches every token it is a prefix of via one range lookup; the cost of a
+// query depends on the matching postings, not on the number of indexed documents.
+public class TokenIndex {
+    private final TreeMap<String, Postings> tokens = new TreeMap<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    public void add(int id, String text) {
+        List<String> words = tokenize(text);
+        if (words.isEmpty()) return;
+        lock.writeLock().lock();
+        try {
+            for (String w : words) tokens.computeIfAbsent(w, k -> new Postings()).add(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Ids (ascending) of documents where every query word prefixes some token, or null if the
+    // query has no words at all.
+    public int[] query(String q) {
+        List<String> words = tokenize(q);
+        if (words.isEmpty()) return null;
+        lock.readLock().lock();
+        try {
+            int[] result = null;
+            for (String w : words) {
+                int[] ids = prefixMatches(w);
+                result = result == null ? ids : intersect(result, ids);
+                if (result.length == 0) break;
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int tokenCount() {
+        lock.readLock().lock();
+        try {
+            return tokens.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Lower-cased runs of letters and digits; everything else separates words.
+    public static List<String> tokenize(String text) {
+        List<String> out = new ArrayList<>();
+        if (text == null) return out;
+        int n = text.length();
+        int i = 0;
+        while (i < n) {
+            while (i < n && !Character.isLetterOrDigit(text.charAt(i))) i++;
+            int start = i;
+            while (i < n && Character.isLetterOrDigit(text.charAt(i))) i++;
+            if (i > start) out.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+        }
+        return out;
+    }
+
+    // Whether every query word (as tokenize returns them) prefixes some word of text: what
+    // query() matches, for one text without an index.
+    public static boolean matches(List<String> words, String text) {
+        List<String> tokens = tokenize(text);
+        for (String w : words) {
+            boolean found = false;
+            for (String t : tokens) {
+                if (t.startsWith(w)) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) return false;
+        }
+        return true;
+    }
+
+    private int[] prefixMatches(String prefix) {
+        Map<String, Postings> range = tokens.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+        if (range.isEmpty()) return new int[0];
+        if (range.size() == 1) return range.values().iterator().next().toArray();
+        int total = 0;
+        for (Postings p : range.values()) total += p.size;
+        int[] all = new int[total];
+        int k = 0;
+        for (Postings p : range.values()) {
+            System.arraycopy(p.ids, 0, all, k, p.size);
+            k += p.size;
+        }
+        Arrays.sort(all);
+        int m = 0;
+        for (int i = 0; i < all.length; i++) if (m == 0 || all[m - 1] != all[i]) all[m++] = all[i];
+        return Arrays.copyOf(all, m);
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        int[] out = new int[Math.min(a.length, b.length)];
+        int i = 0, j = 0, k = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) i++;
+            else if (a[i] > b[j]) j++;
+            else { out[k++] = a[i]; i++; j++; }
+        }
+        return Arrays.copyOf(out, k);
+    }
+
+    // Growable sorted int list. Ids almost always arrive in increasing order, so add is
+    // amortized O(1); out-of-order ids are shifted into place.
+    private static final class Postings {
+        int[] ids = new int[2];
+        int size;
+
+        void add(int id) {
+            int pos = size;
+            while (pos > 0 && ids[pos - 1] > id) pos--;
+            if (pos > 0 && ids[pos - 1] == id) return; // same word twice in one text
+            if (size == ids.length) ids = Arrays.copyOf(ids, size * 2);
+            System.arraycopy(ids, pos, ids, pos + 1, size - pos);
+            ids[pos] = id;
+            size++;
+        }
+
+        int[] toArray() { return Arrays.copyOf(ids, size); }
+    }
+}
@@ -1,5 +1,6 @@
-import java.util.regex.Pattern;
-import java.util.regex.Matcher;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
 
 public class User {
     private final int id;
@@ -10,60 +11,54 @@ public class User {
 
     public int getId() { return id; }
     public String getName() { return name; }
+    public String getEmail() { return email; }
 
     @Override
     public String toString() {
-        return String.format("UserID:%d | %s | %s", id, name, email == null ? "" : email);
+        return RowFormatter.appendUser(new StringBuilder(64), this).toString();
     }
 
     public String toJson() {
-        StringBuilder sb = new StringBuilder();
-        sb.append("{\n");
-        sb.append("  \"id\": ").append(id).append(",\n");
-        sb.append("  \"name\": \"").append(escape(name)).append("\",\n");
-        sb.append("  \"email\": ").append(email == null ? "null" : "\"" + escape(email) + "\"").append("\n");
-        sb.append("}");
-        return sb.toString();
+        StringWriter sw = new StringWriter();
+        try {
+            writeJson(new JsonWriter(sw));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return sw.toString();
     }
 
-    public static User fromJson(String text) {
-        int id = extractInt(text, "\"id\"\\s*:\\s*(\\d+)");
-        String name = extractString(text, "\"name\"\\s*:\\s*\"(.*?)\"");
-        String email = extractStringOptional(text, "\"email\"\\s*:\\s*(null|\"(.*?)\")");
-        if (id == -1) return null;
-        if ("null".equals(email)) email = null;
-        else email = unescape(email);
-        return new User(id, unescape(name), email);
+    public void writeJson(JsonWriter out) throws IOException {
+        out.beginObject();
+        out.name("id").value(id);
+        out.name("name").value(name);
+        out.name("email").value(email);
+        out.endObject();
     }
 
-    private static int extractInt(String t, String regex) {
-        Pattern p = Pattern.compile(regex, Pattern.DOTALL);
-        Matcher m = p.matcher(t);
-        if (m.find()) try { return Integer.parseInt(m.group(1)); } catch (Exception ignored) {}
-        return -1;
-    }
-    private static String extractString(String t, String regex) {
-        Pattern p = Pattern.compile(regex, Pattern.DOTALL);
-        Matcher m = p.matcher(t);
-        if (m.find()) return m.group(1);
-        return "";
-    }
-    private static String extractStringOptional(String t, String regex) {
-        Pattern p = Pattern.compile(regex, Pattern.DOTALL);
-        Matcher m = p.matcher(t);
-        if (m.find()) {
-            if (m.group(1).equals("null")) return "null";
-            if (m.groupCount() >= 2) return m.group(2) == null ? "" : m.group(2);
+    public static User fromJson(String text) {
+        try {
+            return readJson(new JsonReader(text));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
-        return "";
     }
 
-    private static String escape(String s) {
-        if (s == null) return "";
-        return s.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n").replace("\r", "");
-    }
-    private static String unescape(String s) {
-        if (s == null) return "";
-        return s.replace("\\n", "\n").replace("\\\"", "\"").replace("\\\\", "\\");
+    // Reads one object; returns null if it has no id.
+    public static User readJson(JsonReader in) throws IOException {
+        int id = -1;
+        String name = "", email = null;
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "id" -> id = in.nextInt();
+                case "name" -> name = in.nextString();
+                case "email" -> email = in.nextString();
+                default -> in.skipValue();
+            }
+        }
+        in.endObject();
+        if (id == -1) return null;
+        return new User(id, name, email);
     }
 }
@@ -0,0 +1,68 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Open loans by borrower, so "what does user X have out?" and the borrowing limit don't scan
+// every loan. Each user keeps the loans themselves and a count; the count also holds places
+// reserved by issues in flight, which is what makes the limit check one CAS: two issues
+// racing for a user's last place can't both get it.
+public class UserLoans {
+    private static final class Entry {
+        final AtomicInteger count = new AtomicInteger();
+        final Set<IssuedRecord> loans = ConcurrentHashMap.newKeySet();
+    }
+
+    private final ConcurrentHashMap<Integer, Entry> byUser = new ConcurrentHashMap<>();
+
+    // Takes n places for the user unless that would go past max (max <= 0: no limit).
+    public boolean reserve(int userId, int n, int max) {
+        AtomicInteger count = entry(userId).count;
+        while (true) {
+            int c = count.get();
+            if (max > 0 && c + n > max) return false;
+            if (count.compareAndSet(c, c + n)) return true;
+        }
+    }
+
+    // Hands back places reserved for an issue that then failed.
+    public void release(int userId, int n) {
+        entry(userId).count.addAndGet(-n);
+    }
+
+    // Records an open loan; `reserved` if its place was already taken with reserve().
+    public void add(IssuedRecord r, boolean reserved) {
+        Entry e = entry(r.getUserId());
+        if (e.loans.add(r)) {
+            if (!reserved) e.count.incrementAndGet();
+        } else if (reserved) {
+            e.count.decrementAndGet(); // already there: give the place back
+        }
+    }
+
+    public void remove(IssuedRecord r) {
+        Entry e = byUser.get(r.getUserId());
+        if (e != null && e.loans.remove(r)) e.count.decrementAndGet();
+    }
+
+    // Open loans plus reservations in flight.
+    public int count(int userId) {
+        Entry e = byUser.get(userId);
+        return e == null ? 0 : e.count.get();
+    }
+
+    // The user's open loans, earliest due first.
+    public List<IssuedRecord> loansOf(int userId) {
+        Entry e = byUser.get(userId);
+        if (e == null) return List.of();
+        List<IssuedRecord> out = new ArrayList<>(e.loans);
+        out.sort(Comparator.comparing(IssuedRecord::getDueDate).thenComparingInt(IssuedRecord::getId));
+        return out;
+    }
+
+    private Entry entry(int userId) {
+        return byUser.computeIfAbsent(userId, id -> new Entry());
+    }
+}
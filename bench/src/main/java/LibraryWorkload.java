@@ -0,0 +1,45 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+
+// Default-package side of librarybench.Workload; see there for why it exists.
+public class LibraryWorkload implements librarybench.Workload {
+    private Library lib;
+    private int books, users;
+
+    @Override
+    public void setUp(int books, int users, int loans) throws IOException {
+        this.books = books;
+        this.users = users;
+        Path tmp = Files.createTempFile("library-bench", ".json");
+        try {
+            try (Writer out = Files.newBufferedWriter(tmp)) {
+                new CatalogGenerator(books, users, loans, 42L, LocalDate.now()).write(out);
+            }
+            lib = Library.loadFromFile(tmp.toString());
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    @Override public int bookCount() { return books; }
+    @Override public int userCount() { return users; }
+
+    @Override public Object findBookById(int id) { return lib.findBookById(id); }
+    @Override public Object searchByTitle(String keyword) { return lib.searchByTitle(keyword); }
+
+    @Override
+    public boolean issueAndReturn(int bookId, int userId) {
+        IssuedRecord r = lib.issue(bookId, userId, 14);
+        return r != null && lib.returnBook(r.getId());
+    }
+
+    @Override public Object overdueRecords() { return lib.getOverdueRecords(); }
+
+    @Override public String toJson() { return lib.toJson(); }
+    @Override public Object fromJson(String json) { return Library.fromJson(json); }
+    @Override public void saveToFile(Path path) { lib.saveToFile(path.toString()); }
+    @Override public Object loadFromFile(Path path) { return Library.loadFromFile(path.toString()); }
+}
@@ -0,0 +1,35 @@
+package librarybench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+// In-memory JSON round trips. Stops at a million: the text of a 10^7 catalog is over 3 GB,
+// past what one String holds, so that size is covered by PersistenceBench's file round trips.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class JsonBench {
+    @Param({"1000", "100000", "1000000"})
+    public int size;
+
+    private Workload lib;
+    private String json;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        lib = Workload.create();
+        lib.setUp(size, Math.max(1, size / 10), size);
+        json = lib.toJson();
+    }
+
+    @Benchmark
+    public String toJson() { return lib.toJson(); }
+
+    @Benchmark
+    public Object fromJson() { return lib.fromJson(json); }
+}
@@ -0,0 +1,55 @@
+package librarybench;
+
+import java.io.IOException;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+// In-memory hot paths against a catalog of `size` books, size/10 users and `size` loans.
+// issueAndReturn appends a loan per call, so the issued table grows over a run; that is
+// part of what it measures.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LookupBench {
+    @Param({"1000", "100000", "10000000"})
+    public int size;
+
+    private Workload lib;
+    private final int[] ids = new int[1024];
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        lib = Workload.create();
+        lib.setUp(size, Math.max(1, size / 10), size);
+        SplittableRandom rnd = new SplittableRandom(7);
+        for (int i = 0; i < ids.length; i++) ids[i] = 1 + rnd.nextInt(size);
+    }
+
+    private int nextId() { return ids[next++ & (ids.length - 1)]; }
+
+    @Benchmark
+    public Object findBookById() { return lib.findBookById(nextId()); }
+
+    @Benchmark
+    public Object searchByTitleOneWord() { return lib.searchByTitle("silver"); }
+
+    @Benchmark
+    public Object searchByTitlePrefixes() { return lib.searchByTitle("riv sto"); }
+
+    @Benchmark
+    public boolean issueAndReturn() {
+        int book = nextId();
+        return lib.issueAndReturn(book, 1 + book % lib.userCount());
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void getOverdueRecords(Blackhole bh) { bh.consume(lib.overdueRecords()); }
+}
@@ -0,0 +1,53 @@
+package librarybench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+// File round trips in either snapshot format (JsonBench has the in-memory JSON ones). The
+// 10^7 point needs a large heap, e.g.
+//   java -Xmx8g -jar target/benchmarks.jar Persistence
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PersistenceBench {
+    @Param({"1000", "100000", "1000000", "10000000"})
+    public int size;
+
+    // "json" for library.json, "bin" for the binary snapshot
+    @Param({"json", "bin"})
+    public String format;
+
+    private Workload lib;
+    private Path dir;
+    private Path file;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        lib = Workload.create();
+        lib.setUp(size, Math.max(1, size / 10), size);
+        dir = Files.createTempDirectory("library-bench");
+        file = dir.resolve("library." + format);
+        lib.saveToFile(file);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (var files = Files.list(dir)) {
+            for (Path p : (Iterable<Path>) files::iterator) Files.deleteIfExists(p);
+        }
+        Files.deleteIfExists(dir);
+    }
+
+    @Benchmark
+    public void saveToFile() { lib.saveToFile(file); }
+
+    @Benchmark
+    public Object loadFromFile() { return lib.loadFromFile(file); }
+}
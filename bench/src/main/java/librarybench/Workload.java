@@ -0,0 +1,35 @@
+package librarybench;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+// What the benchmarks drive. The application classes live in the default package, which a
+// named package can't refer to, and JMH refuses benchmarks in the default package; so the
+// calls go through this interface, implemented by LibraryWorkload next to the app. Each
+// benchmark only ever sees that one implementation, so the calls inline away.
+public interface Workload {
+    // Generates a synthetic catalog of the given size and loads it.
+    void setUp(int books, int users, int loans) throws IOException;
+
+    int bookCount();
+    int userCount();
+
+    Object findBookById(int id);
+    Object searchByTitle(String keyword);
+    // Issues a copy and returns it straight away; false if no copy was free.
+    boolean issueAndReturn(int bookId, int userId);
+    Object overdueRecords();
+
+    String toJson();
+    Object fromJson(String json);
+    void saveToFile(Path path);
+    Object loadFromFile(Path path);
+
+    static Workload create() {
+        try {
+            return (Workload) Class.forName("LibraryWorkload").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("LibraryWorkload not on the classpath", e);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// A save that fails must not count as saved: flush() and close() report it, and the saver
+// keeps retrying until one goes through.
+class BackgroundSaverTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void failedSaveIsReportedAndRetried() throws Exception {
+        AtomicBoolean broken = new AtomicBoolean(true);
+        AtomicInteger saves = new AtomicInteger();
+        BackgroundSaver s = new BackgroundSaver("test-saver", 10_000, () -> {
+            saves.incrementAndGet();
+            if (broken.get()) throw new IOException("disk full");
+        });
+        s.mark();
+        IOException e = assertThrows(IOException.class, s::flush);
+        assertEquals("disk full", e.getMessage());
+        assertThrows(IOException.class, s::flush); // still unsaved: tries again, fails again
+
+        broken.set(false);
+        long deadline = System.currentTimeMillis() + 5_000;
+        int before = saves.get();
+        while (saves.get() == before && System.currentTimeMillis() < deadline) Thread.sleep(10);
+        assertTrue(saves.get() > before, "retried without a flush");
+        s.flush();
+        s.close();
+    }
+
+    @Test
+    void closeThrowsWhenTheLastSaveFails() {
+        BackgroundSaver s = new BackgroundSaver("test-saver", 10_000, () -> { throw new IOException("gone"); });
+        s.mark();
+        assertThrows(IOException.class, s::close);
+    }
+
+    @Test
+    void libraryFlushSurfacesAFailedCheckpoint() throws IOException {
+        Path sub = Files.createDirectory(dir.resolve("data"));
+        String file = sub.resolve("library.json").toString();
+        Library lib = new Library();
+        lib.saveToFile(file);
+        lib.enableAsyncSave(file, 10_000);
+        Files.delete(Path.of(file));
+        Files.delete(sub); // the next checkpoint has nowhere to go
+        lib.addBook("Unsaved", "X", 1);
+        assertThrows(UncheckedIOException.class, lib::flush);
+
+        Files.createDirectory(sub);
+        lib.flush();
+        lib.closeAsyncSave();
+        assertEquals(lib.toJson(), Library.loadFromFile(file).toJson());
+    }
+}
@@ -0,0 +1,122 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+
+// Desks racing on the same books: copies are never oversold, and every consistent view (the
+// live state once they stop, snapshots while they run) has availableCopies + open loans equal
+// to totalCopies for each book.
+class LibraryConcurrencyTest {
+    private static final int DESKS = 16;
+
+    @Test
+    void lastCopiesAreNeverOversold() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(DESKS);
+        try {
+            for (boolean compact : new boolean[]{false, true}) {
+                for (int round = 0; round < 200; round++) {
+                    Library lib = new Library(compact);
+                    int copies = 1 + round % 3;
+                    Book b = lib.addBook("Last copy", "A", copies);
+                    for (int i = 0; i < DESKS; i++) lib.addUser("u" + i, null);
+                    CyclicBarrier start = new CyclicBarrier(DESKS);
+                    List<Future<IssuedRecord>> desks = new ArrayList<>();
+                    for (int i = 0; i < DESKS; i++) {
+                        int userId = i + 1;
+                        desks.add(pool.submit(() -> {
+                            start.await();
+                            return lib.issue(b.getId(), userId, 14);
+                        }));
+                    }
+                    int issued = 0;
+                    for (Future<IssuedRecord> d : desks) if (d.get() != null) issued++;
+                    assertEquals(copies, issued, "loans of a book with " + copies + " copies");
+                    assertEquals(0, lib.findBookById(b.getId()).getAvailableCopies());
+                    assertCountsAddUp(lib);
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void issuesAndReturnsKeepCopyCountsConsistent() throws Exception {
+        Library lib = new Library();
+        int books = 8, users = 32, ops = 4000;
+        for (int i = 0; i < books; i++) lib.addBook("B" + i, "A", 3);
+        for (int i = 0; i < users; i++) lib.addUser("u" + i, null);
+
+        ExecutorService pool = Executors.newFixedThreadPool(DESKS + 1);
+        try {
+            AtomicBoolean running = new AtomicBoolean(true);
+            Future<Integer> checker = pool.submit(() -> {
+                int seen = 0;
+                while (running.get()) {
+                    assertCountsAddUp(Library.fromJson(lib.toJson())); // a snapshot is one consistent moment
+                    seen++;
+                }
+                return seen;
+            });
+            List<Future<?>> desks = new ArrayList<>();
+            for (int d = 0; d < DESKS; d++) {
+                long seed = d;
+                desks.add(pool.submit(() -> {
+                    desk(lib, new SplittableRandom(seed), books, users, ops);
+                    return null;
+                }));
+            }
+            for (Future<?> d : desks) d.get();
+            running.set(false);
+            assertTrue(checker.get() > 0);
+        } finally {
+            pool.shutdownNow();
+        }
+        assertCountsAddUp(lib);
+    }
+
+    // Issues, returns, baskets and holds at random; returns only what this desk issued.
+    private static void desk(Library lib, SplittableRandom rnd, int books, int users, int ops) {
+        List<IssuedRecord> mine = new ArrayList<>();
+        for (int i = 0; i < ops; i++) {
+            int bookId = 1 + rnd.nextInt(books), userId = 1 + rnd.nextInt(users);
+            switch (rnd.nextInt(6)) {
+                case 0, 1 -> {
+                    IssuedRecord r = lib.issue(bookId, userId, 14);
+                    if (r != null) mine.add(r);
+                }
+                case 2 -> {
+                    List<IssuedRecord> rs = lib.issueBooks(userId, new int[]{bookId, 1 + rnd.nextInt(books)}, 14);
+                    if (rs != null) mine.addAll(rs);
+                }
+                case 3 -> {
+                    if (!mine.isEmpty()) assertTrue(lib.returnBook(mine.remove(rnd.nextInt(mine.size())).getId()));
+                }
+                case 4 -> {
+                    if (mine.size() < 2) continue;
+                    IssuedRecord a = mine.remove(mine.size() - 1), b = mine.remove(mine.size() - 1);
+                    assertTrue(lib.returnBooks(new int[]{a.getId(), b.getId()}));
+                }
+                default -> lib.placeHold(bookId, userId, 14);
+            }
+        }
+    }
+
+    private static void assertCountsAddUp(Library lib) {
+        int[] open = new int[lib.getBooks().size() + 1];
+        for (IssuedRecord r : lib.getIssuedRecords()) if (r.getReturnDate() == null) open[r.getBookId()]++;
+        for (Book b : lib.getBooks()) {
+            assertTrue(b.getAvailableCopies() >= 0, "book " + b.getId() + " oversold");
+            assertEquals(b.getTotalCopies(), b.getAvailableCopies() + open[b.getId()], "copies of book " + b.getId());
+        }
+    }
+}
@@ -0,0 +1,44 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// Saves after the first rewrite only the dirty shards, loan months included; what loads back
+// must still be the whole library.
+class ShardedSaveTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void incrementalSavesRoundTrip() {
+        String store = dir.resolve("library" + ShardedStore.SUFFIX).toString();
+        Library lib = new Library();
+        lib.enableArchive(dir.resolve("archive").toString());
+        for (int i = 0; i < 4; i++) lib.addBook("B" + i, "A", 3);
+        for (int i = 0; i < 4; i++) lib.addUser("u" + i, null);
+        LocalDate jan = LocalDate.of(2024, 1, 10), feb = LocalDate.of(2024, 2, 10), mar = LocalDate.of(2024, 3, 10);
+        lib.importLoans(Stream.of(
+                new Library.NewLoan(1, 1, jan, jan.plusDays(14), jan.plusDays(3)),
+                new Library.NewLoan(2, 2, jan, jan.plusDays(14), null),
+                new Library.NewLoan(3, 3, feb, feb.plusDays(14), null),
+                new Library.NewLoan(4, 4, mar, mar.plusDays(14), null)));
+        lib.saveToFile(store);
+        assertEquals(lib.toJson(), Library.loadFromFile(store).toJson());
+
+        IssuedRecord now = lib.issue(1, 2, 7); // a new month
+        lib.returnBook(3); // dirties February only
+        lib.saveToFile(store);
+        assertEquals(lib.toJson(), Library.loadFromFile(store).toJson());
+
+        lib.returnBook(now.getId());
+        lib.archiveReturned(); // January keeps one loan, February and this month empty out
+        lib.saveToFile(store);
+        Library back = Library.loadFromFile(store);
+        assertEquals(lib.toJson(), back.toJson());
+        assertEquals(2, back.getIssuedRecords().size());
+    }
+}